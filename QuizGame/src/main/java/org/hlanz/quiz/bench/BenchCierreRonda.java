@@ -0,0 +1,126 @@
+package org.hlanz.quiz.bench;
+
+import org.hlanz.quiz.protocolo.Compresion;
+import org.hlanz.quiz.protocolo.MensajeCodificado;
+import org.hlanz.quiz.servidor.CierreRonda;
+import org.hlanz.quiz.servidor.RegistroJugadores;
+import org.hlanz.quiz.servidor.TablaRespuestas;
+import org.hlanz.quiz.simulacion.JugadorSimulado;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Fin de ronda de una sala enorme (del plazo de respuesta al RANKING listo
+ * para enviar) segun el numero de hilos de CierreRonda: puntuar, ordenar y
+ * formatear el ranking, y codificarlo en claro y comprimido.
+ *
+ * Uso: java org.hlanz.quiz.bench.BenchCierreRonda [jugadores] [h1,h2,...]
+ * (por defecto 100000 jugadores y 1,2,4... hasta los nucleos disponibles; la
+ * primera fila es el camino secuencial, en el hilo de la partida)
+ */
+public class BenchCierreRonda {
+    private static final int CALENTAMIENTO = 5;
+    private static final int RONDAS = 15;
+    private static final char[] OPCIONES = {'A', 'B', 'C', 'D'};
+
+    public static void main(String[] args) throws IOException {
+        int jugadores = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int[] hilos = args.length > 1
+                ? Arrays.stream(args[1].split(",")).mapToInt(h -> Integer.parseInt(h.trim())).toArray()
+                : potenciasDeDos(Runtime.getRuntime().availableProcessors());
+
+        System.out.println(jugadores + " jugadores, mediana de " + RONDAS + " rondas (ms)");
+        System.out.println("     hilos | puntuar | ranking | codificar |  total | aceleracion");
+        double base = medir("secuencial", jugadores, new CierreRonda(ForkJoinPool.commonPool(), Integer.MAX_VALUE), 0);
+        for (int h : hilos) {
+            ForkJoinPool pool = new ForkJoinPool(h);
+            try {
+                medir(String.valueOf(h), jugadores, new CierreRonda(pool, 0), base);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // Devuelve la mediana del total; todas las configuraciones juegan las mismas rondas
+    private static double medir(String etiqueta, int jugadores, CierreRonda cierre, double base) throws IOException {
+        RegistroJugadores registro = new RegistroJugadores(jugadores);
+        TablaRespuestas tabla = new TablaRespuestas(jugadores);
+        int[] puntosRonda = new int[jugadores];
+        for (int i = 0; i < jugadores; i++) registro.alta(new JugadorSimulado(i, i, null, 0, 0));
+        Random random = new Random(42);
+
+        long[][] tiempos = new long[3][RONDAS];
+        for (int ronda = 0; ronda < CALENTAMIENTO + RONDAS; ronda++) {
+            // Respuestas de la ronda: fuera de la medida
+            tabla.abrirRonda(0);
+            for (int slot = 0; slot < jugadores; slot++) {
+                if (random.nextInt(10) > 0) tabla.registrar(slot, OPCIONES[random.nextInt(4)], random.nextInt(20_000));
+            }
+            tabla.cerrarRonda();
+
+            long t0 = System.nanoTime();
+            cierre.puntuar(tabla, registro, 'B', puntosRonda);
+            long t1 = System.nanoTime();
+            String ranking = cierre.formatearRanking(registro, cierre.ordenar(registro));
+            long t2 = System.nanoTime();
+            MensajeCodificado mensaje = cierre.codificar("RANKING", ranking, registro.getLimite());
+            byte[] comprimido = mensaje.para(true);
+            long t3 = System.nanoTime();
+
+            if (ronda == 0) comprobar(mensaje.plano(), comprimido, ranking);
+            if (ronda >= CALENTAMIENTO) {
+                int r = ronda - CALENTAMIENTO;
+                tiempos[0][r] = t1 - t0;
+                tiempos[1][r] = t2 - t1;
+                tiempos[2][r] = t3 - t2;
+            }
+        }
+
+        double puntuar = mediana(tiempos[0]), ranking = mediana(tiempos[1]), codificar = mediana(tiempos[2]);
+        double total = puntuar + ranking + codificar;
+        System.out.printf("%10s | %7.2f | %7.2f | %9.2f | %6.2f | %s%n", etiqueta, puntuar, ranking, codificar, total,
+                base > 0 ? String.format("%.2fx", base / total) : "-");
+        return total;
+    }
+
+    // El comprimido por bloques tiene que descomprimir al mismo body que el plano
+    private static void comprobar(byte[] plano, byte[] comprimido, String ranking) throws IOException {
+        if (comprimido == plano) return;
+        byte[] body = ranking.getBytes(StandardCharsets.UTF_8);
+        int inicio = indiceBody(comprimido);
+        byte[] descomprimido = Compresion.descomprimir(comprimido, inicio, comprimido.length - inicio, body.length);
+        if (!Arrays.equals(body, descomprimido)) throw new IllegalStateException("El ranking comprimido no coincide");
+    }
+
+    private static int indiceBody(byte[] mensaje) {
+        for (int i = 3; i < mensaje.length; i++) {
+            if (mensaje[i - 3] == '\r' && mensaje[i - 2] == '\n' && mensaje[i - 1] == '\r' && mensaje[i] == '\n') {
+                return i + 1;
+            }
+        }
+        throw new IllegalStateException("Mensaje sin cabeceras");
+    }
+
+    private static double mediana(long[] nanos) {
+        long[] copia = nanos.clone();
+        Arrays.sort(copia);
+        return copia[copia.length / 2] / 1e6;
+    }
+
+    private static int[] potenciasDeDos(int nucleos) {
+        int n = 1;
+        while ((1 << n) <= nucleos) n++;
+        int[] hilos = new int[n];
+        for (int i = 0; i < n; i++) hilos[i] = 1 << i;
+        if (hilos[n - 1] != nucleos) {
+            hilos = Arrays.copyOf(hilos, n + 1);
+            hilos[n] = nucleos;
+        }
+        return hilos;
+    }
+}
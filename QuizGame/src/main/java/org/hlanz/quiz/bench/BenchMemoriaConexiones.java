@@ -0,0 +1,78 @@
+package org.hlanz.quiz.bench;
+
+import org.hlanz.quiz.protocolo.LectorMensajes;
+
+import java.io.*;
+import java.lang.ref.Reference;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Memoria retenida por conexion inactiva: estado de E/S clasico
+ * (BufferedReader + InputStreamReader + PrintWriter) frente a LectorMensajes
+ * sin buffer prestado + OutputStream directo.
+ *
+ * Uso: java org.hlanz.quiz.bench.BenchMemoriaConexiones [n1,n2,...]
+ * (por defecto 1000,10000,100000; con -Xmx pequeno los casos grandes del
+ * modo clasico se quedan sin memoria y se indica asi en la tabla)
+ */
+public class BenchMemoriaConexiones {
+
+    // Stream que nunca tiene datos: cada "conexion" se queda como recien aceptada
+    private static final InputStream VACIO = new InputStream() {
+        @Override public int read() { return -1; }
+    };
+    private static final OutputStream NULO = OutputStream.nullOutputStream();
+
+    public static void main(String[] args) {
+        String lista = args.length > 0 ? args[0] : "1000,10000,100000";
+        System.out.println("Conexiones | clasico (B/conexion) | pool (B/conexion)");
+        for (String n : lista.split(",")) {
+            int conexiones = Integer.parseInt(n.trim());
+            String clasico = medir(conexiones, false);
+            String pool = medir(conexiones, true);
+            System.out.printf("%10d | %20s | %17s%n", conexiones, clasico, pool);
+        }
+    }
+
+    private static String medir(int conexiones, boolean conPool) {
+        MemoryMXBean memoria = ManagementFactory.getMemoryMXBean();
+        Object[] estado = new Object[conexiones];
+        long antes = usado(memoria);
+        try {
+            for (int i = 0; i < conexiones; i++) {
+                estado[i] = conPool ? nuevaConexionPool() : nuevaConexionClasica();
+            }
+        } catch (OutOfMemoryError e) {
+            return "sin memoria";
+        }
+        long despues = usado(memoria);
+        Reference.reachabilityFence(estado); // que el GC no lo libere antes de medir
+        return String.valueOf((despues - antes) / conexiones);
+    }
+
+    private static Object nuevaConexionClasica() {
+        return new Object[]{
+                new BufferedReader(new InputStreamReader(VACIO, StandardCharsets.UTF_8)),
+                new PrintWriter(new OutputStreamWriter(NULO, StandardCharsets.UTF_8), false)
+        };
+    }
+
+    private static Object nuevaConexionPool() {
+        return new Object[]{new LectorMensajes(VACIO, 64 * 1024), NULO};
+    }
+
+    // Heap usado tras varias pasadas de GC
+    private static long usado(MemoryMXBean memoria) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return memoria.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -1,19 +1,33 @@
 package org.hlanz.quiz.cliente;
 
+import org.hlanz.quiz.protocolo.Compresion;
 import org.hlanz.quiz.protocolo.HttpUtil;
+import org.hlanz.quiz.protocolo.LectorMensajes;
+import org.hlanz.quiz.protocolo.Precarga;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
 
 public class ClienteQuiz {
     private static String HOST = "localhost";
+    private static String SALA = null; // sala por defecto del servidor
     private static final int PUERTO = 8080;
 
-    private Socket socket;
-    private PrintWriter salida;
-    private BufferedReader entrada;
+    private static final int MAX_INTENTOS_REANUDAR = 5;
+    private static final int MAX_CUERPO = 1024 * 1024; // rankings de salas grandes
+    // Aula en una LAN: recibir la partida por multicast si el servidor lo tiene (-Dquiz.multicast=true)
+    private static final boolean MULTICAST = Boolean.getBoolean("quiz.multicast");
+
+    private volatile Socket socket;
+    private volatile PrintWriter salida;
+    private volatile LectorMensajes entrada;
+    private volatile String tokenSesion; // recibido en el mensaje TOKEN tras /join
+    private volatile ReceptorMulticast receptor; // tras el mensaje MULTICAST
+    private volatile String precarga; // body del ultimo PRELOAD, a la espera de su REVEAL
     private Scanner scanner;
     private volatile boolean conectado = true;
 
@@ -24,15 +38,15 @@ public class ClienteQuiz {
     public void iniciar() {
         try {
             socket = new Socket(HOST, PUERTO);
-            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            salida = new PrintWriter(socket.getOutputStream(), false);
+            entrada = new LectorMensajes(socket.getInputStream(), MAX_CUERPO);
+            salida = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false);
 
             System.out.println("=== QUIZ GAME ===");
             System.out.println("Protocolo: HTTP/1.1 sobre TCP");
             System.out.println("Conectado al servidor\n");
 
             // Leer respuesta HTTP de bienvenida del servidor
-            Map<String, String> bienvenida = HttpUtil.parse(entrada);
+            Map<String, String> bienvenida = entrada.leer();
             if (bienvenida != null) {
                 System.out.println(bienvenida.get("body"));
             }
@@ -40,7 +54,16 @@ public class ClienteQuiz {
             // Enviar nombre con peticion HTTP: POST /join
             System.out.print("Introduce tu nombre: ");
             String nombre = scanner.nextLine().trim();
-            enviarPeticion("POST", "/join", nombre);
+            // Accept-Encoding: los mensajes largos (preguntas, rankings) llegan comprimidos
+            // y LectorMensajes los descomprime al leerlos
+            Map<String, String> cabeceras = new HashMap<>();
+            cabeceras.put(Compresion.ACEPTAR, Compresion.DEFLATE);
+            if (SALA != null) cabeceras.put("X-Room", SALA);
+            // X-Preload: la siguiente pregunta llega cifrada en la pausa y al empezar la ronda solo la clave
+            cabeceras.put(Precarga.CABECERA, "1");
+            if (MULTICAST) cabeceras.put("X-Multicast", "1");
+            salida.print(HttpUtil.buildRequest("POST", "/join", cabeceras, nombre));
+            salida.flush();
 
             // Hilo listener para recibir respuestas HTTP del servidor
             Thread listener = new Thread(new ListenerServidor());
@@ -77,12 +100,56 @@ public class ClienteQuiz {
         }
     }
 
+    // Reconectar y enviar POST /resume con el token para conservar nombre y puntos
+    private boolean reanudarSesion() {
+        for (int intento = 1; intento <= MAX_INTENTOS_REANUDAR && conectado; intento++) {
+            try {
+                Thread.sleep(1000L * intento);
+                System.out.println("[i] Reconectando (intento " + intento + "/" + MAX_INTENTOS_REANUDAR + ")...");
+                Socket nuevo = new Socket(HOST, PUERTO);
+                LectorMensajes nuevaEntrada = new LectorMensajes(nuevo.getInputStream(), MAX_CUERPO);
+                PrintWriter nuevaSalida = new PrintWriter(new OutputStreamWriter(nuevo.getOutputStream(), StandardCharsets.UTF_8), false);
+
+                nuevaEntrada.leer(); // bienvenida del servidor
+                nuevaSalida.print(HttpUtil.buildRequest("POST", "/resume",
+                        Map.of(Compresion.ACEPTAR, Compresion.DEFLATE, Precarga.CABECERA, "1"), tokenSesion));
+                nuevaSalida.flush();
+
+                // Lo que llegue antes del WELCOME (o del ERROR) no es la respuesta al /resume
+                Map<String, String> respuesta = nuevaEntrada.leer();
+                while (respuesta != null && !"WELCOME".equals(respuesta.get("X-Type"))
+                        && !"ERROR".equals(respuesta.get("X-Type"))) {
+                    respuesta = nuevaEntrada.leer();
+                }
+                if (respuesta == null || !"WELCOME".equals(respuesta.get("X-Type"))) {
+                    // Token rechazado: la sesion ya no existe en el servidor
+                    if (respuesta != null) System.out.println("[!] " + respuesta.get("body"));
+                    nuevaEntrada.liberar();
+                    nuevo.close();
+                    return false;
+                }
+
+                try { socket.close(); } catch (IOException ignored) {}
+                socket = nuevo;
+                entrada = nuevaEntrada;
+                salida = nuevaSalida;
+                System.out.println("[i] Sesion reanudada como " + respuesta.get("body"));
+                return true;
+            } catch (IOException e) {
+                System.out.println("[!] Reconexion fallida: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
     private void cerrarConexion() {
         try {
             conectado = false;
             if (scanner != null) scanner.close();
             if (salida != null) salida.close();
-            if (entrada != null) entrada.close();
             if (socket != null) socket.close();
             System.out.println("\nDesconectado del servidor.");
         } catch (IOException e) {
@@ -94,18 +161,42 @@ public class ClienteQuiz {
     private class ListenerServidor implements Runnable {
         @Override
         public void run() {
-            try {
-                while (conectado) {
-                    Map<String, String> respuesta = HttpUtil.parse(entrada);
-                    if (respuesta == null) break;
-                    procesarRespuesta(respuesta);
+            while (conectado) {
+                Map<String, String> respuesta;
+                try {
+                    respuesta = entrada.leer();
+                } catch (IOException e) {
+                    respuesta = null;
                 }
-            } catch (IOException e) {
-                if (conectado) {
-                    System.err.println("[!] Conexion perdida con el servidor");
-                    conectado = false;
+                if (respuesta == null) {
+                    // Conexion caida: intentar recuperar la sesion con el token
+                    if (conectado && tokenSesion != null && reanudarSesion()) continue;
+                    break;
                 }
+                // Los reenvios de mensajes del multicast se entregan en su orden
+                if (receptor != null && respuesta.get("X-Seq") != null) {
+                    receptor.recibirReenvio(respuesta);
+                } else {
+                    procesarRespuesta(respuesta);
+                }
+            }
+            if (conectado) {
+                System.err.println("[!] Conexion perdida con el servidor");
+                conectado = false;
+            }
+        }
+
+        // Body formato: pregunta\nA:opcion\nB:opcion\nC:opcion\nD:opcion
+        private void mostrarPregunta(String body) {
+            String[] lineas = body.split("\n");
+            System.out.println("\n========================================");
+            System.out.println("  " + lineas[0]);
+            System.out.println("========================================");
+            for (int i = 1; i < lineas.length; i++) {
+                System.out.println("  " + lineas[i].charAt(0) + ") " + lineas[i].substring(2));
             }
+            System.out.println("----------------------------------------");
+            System.out.print("Tu respuesta (A/B/C/D): ");
         }
 
         private void procesarRespuesta(Map<String, String> respuesta) {
@@ -114,17 +205,24 @@ public class ClienteQuiz {
             if (tipo == null || body == null) return;
 
             switch (tipo) {
-                case "QUESTION":
-                    // Body formato: pregunta\nA:opcion\nB:opcion\nC:opcion\nD:opcion
-                    String[] lineas = body.split("\n");
-                    System.out.println("\n========================================");
-                    System.out.println("  " + lineas[0]);
-                    System.out.println("========================================");
-                    for (int i = 1; i < lineas.length; i++) {
-                        System.out.println("  " + lineas[i].charAt(0) + ") " + lineas[i].substring(2));
+                case "PRELOAD":
+                    // Siguiente pregunta cifrada: no se puede leer hasta el REVEAL
+                    precarga = body;
+                    break;
+
+                case "REVEAL":
+                    // Clave de la pregunta precargada; descifrada se muestra como un QUESTION
+                    String pregunta = precarga != null ? Precarga.descifrar(precarga, body) : null;
+                    precarga = null;
+                    if (pregunta != null) {
+                        mostrarPregunta(pregunta);
+                    } else {
+                        System.out.println("[!] La pregunta precargada no coincide con la revelada");
                     }
-                    System.out.println("----------------------------------------");
-                    System.out.print("Tu respuesta (A/B/C/D): ");
+                    break;
+
+                case "QUESTION":
+                    mostrarPregunta(body);
                     break;
 
                 case "RESULT":
@@ -140,6 +238,11 @@ public class ClienteQuiz {
                     System.out.println("---------------");
                     break;
 
+                case "STATS":
+                    // Reparto de respuestas: "A:12,B:3,C:0,D:5,respondidas:20/40[,correctas:5]"
+                    System.out.println("\n[stats] " + body.replace(",", "  "));
+                    break;
+
                 case "NEXT":
                     System.out.println("\nSiguiente pregunta en 3 segundos...");
                     break;
@@ -154,6 +257,14 @@ public class ClienteQuiz {
                     System.out.println("---------------------");
                     System.out.println("Gracias por jugar!");
                     conectado = false;
+                    if (receptor != null) receptor.detener();
+                    break;
+
+                case "MULTICAST":
+                    // Body: "grupo:puerto primeraSecuencia sala"; los huecos se piden por TCP
+                    receptor = ReceptorMulticast.arrancar(body, this::procesarRespuesta,
+                            seq -> enviarPeticion("POST", "/replay", Long.toString(seq)));
+                    System.out.println("[i] Recibiendo la partida por multicast (" + body.split(" ")[0] + ")");
                     break;
 
                 case "WAIT":
@@ -163,6 +274,14 @@ public class ClienteQuiz {
                 case "WELCOME":
                     System.out.println("[i] " + body);
                     break;
+                case "PING":
+                    // Devolver la marca tal cual para que el servidor mida el RTT
+                    enviarPeticion("POST", "/pong", body);
+                    break;
+
+                case "TOKEN":
+                    tokenSesion = body;
+                    break;
 
                 default:
                     System.out.println(body);
@@ -173,6 +292,7 @@ public class ClienteQuiz {
 
     public static void main(String[] args) {
         if (args.length > 0) HOST = args[0];
+        if (args.length > 1) SALA = args[1];
         ClienteQuiz cliente = new ClienteQuiz();
         cliente.iniciar();
     }
@@ -0,0 +1,182 @@
+package org.hlanz.quiz.cliente;
+
+import org.hlanz.quiz.protocolo.LectorMensajes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Recibe los broadcasts de la sala por UDP multicast (ver CanalMulticast en el
+ * servidor) y los entrega en orden.
+ *
+ * Cada mensaje trae su X-Seq. Si llega uno con hueco, los que faltan se piden
+ * por la conexion TCP (POST /replay) y lo posterior se retiene hasta tenerlos;
+ * las respuestas a esos reenvios entran por recibir() igual que los datagramas.
+ * Un reenvio que el servidor ya no tiene (GONE) se salta. Solo se acepta como
+ * reenvio una respuesta de esta sala, con tipo, y para una secuencia que se
+ * pidio y aun falta: lo demas no puede ocupar el hueco de un mensaje perdido.
+ *
+ * Si se pierde el ultimo mensaje enviado (p. ej. un QUESTION) no hay ninguno
+ * posterior que delate el hueco hasta el siguiente PING. Por eso, desde el
+ * anuncio MULTICAST y tras cada mensaje, si pasa REINTENTO_MS sin recibir nada
+ * se pide el siguiente numero: si el servidor ya lo envio lo reenvia, y si no
+ * no contesta.
+ *
+ *   -Dquiz.multicast.interfaz=IP   interfaz por la que escuchar (127.0.0.1 en local)
+ */
+public class ReceptorMulticast implements Runnable {
+    private static final String INTERFAZ = System.getProperty("quiz.multicast.interfaz");
+    private static final int MAX_DATAGRAMA = 65507;
+    private static final int MAX_CUERPO = 1024 * 1024;
+    private static final long REINTENTO_MS = 1000; // volver a pedir un hueco que no llega
+
+    private final InetSocketAddress grupo;
+    private final String sala;
+    private final Consumer<Map<String, String>> entrega;
+    private final LongConsumer pedirReenvio;
+
+    // Mensajes recibidos fuera de orden, a la espera de los anteriores
+    private final TreeMap<Long, Map<String, String>> pendientes = new TreeMap<>();
+    private final TreeSet<Long> pedidos = new TreeSet<>(); // reenvios pedidos que aun faltan
+    private long siguiente;      // secuencia del proximo mensaje a entregar
+    private long pedidoHasta;    // huecos ya pedidos por debajo de esta secuencia
+    private long ultimoPedido;
+    private long ultimaNovedad = System.currentTimeMillis(); // ultimo mensaje recibido o sondeo
+    private volatile boolean activo = true;
+
+    private ReceptorMulticast(InetSocketAddress grupo, long primera, String sala,
+                              Consumer<Map<String, String>> entrega, LongConsumer pedirReenvio) {
+        this.grupo = grupo;
+        this.siguiente = primera;
+        this.pedidoHasta = primera;
+        this.sala = sala;
+        this.entrega = entrega;
+        this.pedirReenvio = pedirReenvio;
+    }
+
+    // A partir del body del mensaje MULTICAST: "grupo:puerto primeraSecuencia sala"
+    public static ReceptorMulticast arrancar(String anuncio, Consumer<Map<String, String>> entrega,
+                                             LongConsumer pedirReenvio) {
+        String[] partes = anuncio.split(" ", 3);
+        int dosPuntos = partes[0].lastIndexOf(':');
+        InetSocketAddress grupo = new InetSocketAddress(partes[0].substring(0, dosPuntos),
+                Integer.parseInt(partes[0].substring(dosPuntos + 1)));
+        ReceptorMulticast receptor = new ReceptorMulticast(grupo, Long.parseLong(partes[1]), partes[2],
+                entrega, pedirReenvio);
+        Thread hilo = new Thread(receptor, "multicast");
+        hilo.setDaemon(true);
+        hilo.start();
+        return receptor;
+    }
+
+    @Override
+    public void run() {
+        try (MulticastSocket socket = new MulticastSocket(grupo.getPort())) {
+            NetworkInterface interfaz = INTERFAZ != null
+                    ? NetworkInterface.getByInetAddress(InetAddress.getByName(INTERFAZ))
+                    : null;
+            socket.joinGroup(new InetSocketAddress(grupo.getAddress(), 0), interfaz);
+            socket.setSoTimeout((int) REINTENTO_MS);
+            byte[] datos = new byte[MAX_DATAGRAMA];
+            while (activo) {
+                DatagramPacket paquete = new DatagramPacket(datos, datos.length);
+                try {
+                    socket.receive(paquete);
+                } catch (SocketTimeoutException e) {
+                    comprobarHuecos();
+                    sondear();
+                    continue;
+                }
+                LectorMensajes lector = new LectorMensajes(
+                        new ByteArrayInputStream(datos, 0, paquete.getLength()), MAX_CUERPO);
+                Map<String, String> mensaje;
+                try {
+                    mensaje = lector.leer();
+                } catch (IOException e) {
+                    continue; // datagrama corrupto: se recupera como hueco
+                } finally {
+                    lector.liberar();
+                }
+                if (mensaje != null && sala.equals(mensaje.get("X-Room"))) recibir(mensaje);
+                sondear(); // los datagramas de otras salas del grupo no dejan que salte el timeout
+            }
+        } catch (IOException e) {
+            System.err.println("[!] No se pudo escuchar el multicast " + grupo + ": " + e.getMessage());
+        }
+    }
+
+    // Respuesta por TCP a un POST /replay
+    public synchronized void recibirReenvio(Map<String, String> mensaje) {
+        if (!sala.equals(mensaje.get("X-Room")) || mensaje.get("X-Type") == null) return;
+        try {
+            if (!pedidos.remove(Long.parseLong(mensaje.get("X-Seq")))) return; // no pedido o ya recibido
+        } catch (NumberFormatException e) {
+            return;
+        }
+        recibir(mensaje);
+    }
+
+    // Mensaje con X-Seq, llegue por multicast o como reenvio por TCP
+    private synchronized void recibir(Map<String, String> mensaje) {
+        long seq;
+        try {
+            seq = Long.parseLong(mensaje.get("X-Seq"));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (seq < siguiente) return; // duplicado
+        ultimaNovedad = System.currentTimeMillis();
+        pendientes.put(seq, mensaje);
+        while (!pendientes.isEmpty() && pendientes.firstKey() == siguiente) {
+            Map<String, String> enOrden = pendientes.pollFirstEntry().getValue();
+            siguiente++;
+            if (!"GONE".equals(enOrden.get("X-Type"))) entrega.accept(enOrden);
+        }
+        pedidos.headSet(siguiente).clear();
+        comprobarHuecos();
+    }
+
+    public void detener() {
+        activo = false;
+    }
+
+    // Sin novedades de la sala en REINTENTO_MS: pedir el siguiente por si se perdio
+    private synchronized void sondear() {
+        long ahora = System.currentTimeMillis();
+        if (!pendientes.isEmpty() || ahora - ultimaNovedad < REINTENTO_MS) return;
+        pedir(siguiente);
+        ultimaNovedad = ahora;
+    }
+
+    // Pedir lo que falta por debajo del ultimo recibido (lo ya pedido, solo si tarda)
+    private synchronized void comprobarHuecos() {
+        if (pendientes.isEmpty()) return;
+        long hasta = pendientes.lastKey();
+        long ahora = System.currentTimeMillis();
+        long desde = ahora - ultimoPedido >= REINTENTO_MS ? siguiente : Math.max(siguiente, pedidoHasta);
+        boolean pedido = false;
+        for (long seq = desde; seq < hasta; seq++) {
+            if (pendientes.containsKey(seq)) continue;
+            pedir(seq);
+            pedido = true;
+        }
+        pedidoHasta = Math.max(pedidoHasta, hasta);
+        if (pedido) ultimoPedido = ahora;
+    }
+
+    private void pedir(long seq) {
+        pedidos.add(seq);
+        pedirReenvio.accept(seq);
+    }
+}
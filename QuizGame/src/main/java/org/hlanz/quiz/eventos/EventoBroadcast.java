@@ -0,0 +1,18 @@
+package org.hlanz.quiz.eventos;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.hlanz.quiz.Broadcast")
+@Label("Broadcast")
+@Description("Codificar un mensaje y escribirlo a todos los jugadores y espectadores de la sala")
+public class EventoBroadcast extends EventoQuiz {
+    @Label("Tipo")
+    public String tipo;
+
+    @Label("Bytes por destinatario")
+    @DataAmount
+    public int bytes;
+}
@@ -0,0 +1,16 @@
+package org.hlanz.quiz.eventos;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.hlanz.quiz.FaseRonda")
+@Label("Fase de ronda")
+@Description("Lanzar pregunta, calcular puntos, generar ranking o cerrar pregunta")
+public class EventoFaseRonda extends EventoQuiz {
+    @Label("Fase")
+    public String fase;
+
+    @Label("Pregunta")
+    public int pregunta;
+}
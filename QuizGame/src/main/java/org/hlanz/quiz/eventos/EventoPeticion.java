@@ -0,0 +1,21 @@
+package org.hlanz.quiz.eventos;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.hlanz.quiz.Peticion")
+@Label("Lectura de peticion")
+@Description("Leer y parsear una peticion de un jugador desde que llega su primer byte")
+public class EventoPeticion extends EventoQuiz {
+    @Label("Jugador")
+    public String jugador;
+
+    @Label("Ruta")
+    public String ruta;
+
+    @Label("Bytes")
+    @DataAmount
+    public int bytes;
+}
@@ -0,0 +1,26 @@
+package org.hlanz.quiz.eventos;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base de los eventos de JDK Flight Recorder del quiz: todos llevan la sala y
+ * cuantos jugadores tenia en ese momento.
+ *
+ * Con JFR apagado los eventos no cuestan nada: quien los emite usa
+ * begin()/end() y solo rellena los campos si shouldCommit() es true.
+ * Grabar una partida: java -XX:StartFlightRecording=filename=quiz.jfr ...
+ * y abrirla con JDK Mission Control o "jfr print --categories Quiz quiz.jfr".
+ * Sin pila: son frecuentes y el punto de origen ya lo dice el tipo de evento.
+ */
+@Category("Quiz")
+@StackTrace(false)
+public abstract class EventoQuiz extends Event {
+    @Label("Sala")
+    public String sala;
+
+    @Label("Jugadores")
+    public int jugadores;
+}
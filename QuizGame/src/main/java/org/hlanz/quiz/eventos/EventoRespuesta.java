@@ -0,0 +1,29 @@
+package org.hlanz.quiz.eventos;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("org.hlanz.quiz.Respuesta")
+@Label("Respuesta")
+@Description("Registrar la respuesta de un jugador en la tabla de la ronda")
+public class EventoRespuesta extends EventoQuiz {
+    @Label("Jugador")
+    public String jugador;
+
+    @Label("Respuesta")
+    public char respuesta;
+
+    @Label("Aceptada")
+    @Description("false si llego fuera de plazo o el jugador ya habia respondido")
+    public boolean aceptada;
+
+    @Label("Tiempo de respuesta")
+    @Timespan(Timespan.MILLISECONDS)
+    public long msRespuesta;
+
+    @Label("RTT")
+    @Timespan(Timespan.MILLISECONDS)
+    public int rttMs;
+}
@@ -0,0 +1,16 @@
+package org.hlanz.quiz.eventos;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.hlanz.quiz.Union")
+@Label("Union a sala")
+@Description("Atender POST /join: elegir sala, emitir token y registrar al jugador")
+public class EventoUnion extends EventoQuiz {
+    @Label("Jugador")
+    public String jugador;
+
+    @Label("Aceptado")
+    public boolean aceptado;
+}
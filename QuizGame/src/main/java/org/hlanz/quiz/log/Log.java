@@ -0,0 +1,140 @@
+package org.hlanz.quiz.log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log asincrono para los hilos del juego y de las conexiones.
+ *
+ * Los mensajes se dejan en un buffer circular preasignado y un unico hilo
+ * escritor los vuelca a stdout por lotes, asi que quien registra nunca espera
+ * al lock de System.out. Si el buffer se llena el mensaje se descarta (y se
+ * cuenta) en vez de bloquear al que lo envia.
+ *
+ * Configuracion (propiedades del sistema):
+ *   -Dquiz.log.nivel=DEBUG|INFO|WARN|ERROR   (por defecto INFO)
+ *   -Dquiz.log.resumen=true                  una linea por ronda en vez de una por jugador
+ */
+public final class Log {
+
+    public enum Nivel { DEBUG, INFO, WARN, ERROR }
+
+    private static final int CAPACIDAD = 8192; // potencia de 2
+    private static final int MASCARA = CAPACIDAD - 1;
+
+    private static final Nivel nivelMinimo = leerNivel();
+    private static final boolean resumenRondas = Boolean.getBoolean("quiz.log.resumen");
+
+    // Buffer circular: mensaje por slot y secuencia publicada en cada slot
+    private static final String[] mensajes = new String[CAPACIDAD];
+    private static final AtomicLongArray publicados = new AtomicLongArray(CAPACIDAD);
+    private static final AtomicLong cabeza = new AtomicLong(); // siguiente secuencia a reservar
+    private static volatile long cola = 0;                     // siguiente secuencia a escribir
+    private static final LongAdder descartados = new LongAdder();
+
+    private static volatile boolean escritorDormido = false;
+    private static volatile boolean cerrando = false;
+    private static final Thread escritor;
+
+    static {
+        for (int i = 0; i < CAPACIDAD; i++) publicados.set(i, i - CAPACIDAD);
+        escritor = new Thread(Log::bucleEscritor, "log-escritor");
+        escritor.setDaemon(true);
+        escritor.start();
+        // Vaciar lo pendiente al terminar la JVM
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            cerrando = true;
+            LockSupport.unpark(escritor);
+            try { escritor.join(2000); } catch (InterruptedException ignored) {}
+        }, "log-cierre"));
+    }
+
+    private Log() {}
+
+    // Un nivel mal escrito no debe tumbar el servidor al primer mensaje: se avisa y se usa INFO
+    private static Nivel leerNivel() {
+        String valor = System.getProperty("quiz.log.nivel", "INFO");
+        try {
+            return Nivel.valueOf(valor.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[WARN] quiz.log.nivel=" + valor + " no es valido (DEBUG, INFO, WARN o ERROR), se usa INFO");
+            return Nivel.INFO;
+        }
+    }
+
+    public static boolean activo(Nivel nivel) { return nivel.compareTo(nivelMinimo) >= 0; }
+    public static boolean debugActivo() { return activo(Nivel.DEBUG); }
+    public static boolean resumenRondas() { return resumenRondas; }
+    public static long getDescartados() { return descartados.sum(); }
+
+    public static void debug(String mensaje) { registrar(Nivel.DEBUG, mensaje); }
+    public static void info(String mensaje) { registrar(Nivel.INFO, mensaje); }
+    public static void warn(String mensaje) { registrar(Nivel.WARN, mensaje); }
+    public static void error(String mensaje) { registrar(Nivel.ERROR, mensaje); }
+
+    public static void error(String mensaje, Throwable t) {
+        if (!activo(Nivel.ERROR)) return;
+        StringWriter sw = new StringWriter();
+        t.printStackTrace(new PrintWriter(sw));
+        registrar(Nivel.ERROR, mensaje + System.lineSeparator() + sw.toString().stripTrailing());
+    }
+
+    public static void registrar(Nivel nivel, String mensaje) {
+        if (!activo(nivel)) return;
+
+        // Reservar una secuencia; si el buffer esta lleno se descarta
+        long seq;
+        do {
+            seq = cabeza.get();
+            if (seq - cola >= CAPACIDAD) {
+                descartados.increment();
+                return;
+            }
+        } while (!cabeza.compareAndSet(seq, seq + 1));
+
+        int i = (int) (seq & MASCARA);
+        mensajes[i] = mensaje;
+        publicados.set(i, seq); // publica el mensaje al escritor
+
+        if (escritorDormido) LockSupport.unpark(escritor);
+    }
+
+    private static void bucleEscritor() {
+        BufferedWriter out = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 64 * 1024);
+        long siguiente = 0;
+        long avisados = 0;
+        try {
+            while (true) {
+                int i = (int) (siguiente & MASCARA);
+                if (publicados.get(i) == siguiente) {
+                    String m = mensajes[i];
+                    mensajes[i] = null;
+                    cola = ++siguiente;
+                    out.write(m);
+                    out.newLine();
+                    continue;
+                }
+
+                // Nada pendiente: volcar el lote y dormir hasta el proximo mensaje
+                long perdidos = descartados.sum();
+                if (perdidos > avisados) {
+                    out.write("[WARN] Log saturado: " + (perdidos - avisados) + " mensajes descartados");
+                    out.newLine();
+                    avisados = perdidos;
+                }
+                out.flush();
+                if (cerrando && cabeza.get() == siguiente) return;
+                escritorDormido = true;
+                if (cabeza.get() == siguiente && !cerrando) LockSupport.parkNanos(100_000_000L);
+                escritorDormido = false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
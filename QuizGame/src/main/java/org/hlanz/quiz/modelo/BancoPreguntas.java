@@ -0,0 +1,193 @@
+package org.hlanz.quiz.modelo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Indice de un banco de preguntas en uno o varios CSV de Blooket.
+ *
+ * Al indexar solo se guarda, por cada pregunta valida, su posicion en disco
+ * (archivo + offset de la linea) agrupada por categoria y dificultad. Las
+ * preguntas se parsean al seleccionarlas, asi que muestrear K preguntas de un
+ * banco enorme lee K lineas y no el fichero entero.
+ */
+public class BancoPreguntas {
+    private static final int BITS_OFFSET = 40; // hasta 1 TB por fichero
+    private static final long MASCARA_OFFSET = (1L << BITS_OFFSET) - 1;
+
+    private final List<Path> archivos;
+    private final long[] todas;                    // posiciones en orden de fichero
+    private final Map<String, long[]> porGrupo;    // "categoria|dificultad" -> posiciones
+
+    private BancoPreguntas(List<Path> archivos, long[] todas, Map<String, long[]> porGrupo) {
+        this.archivos = archivos;
+        this.todas = todas;
+        this.porGrupo = porGrupo;
+    }
+
+    // Recorre los CSV una vez apuntando donde empieza cada pregunta valida
+    public static BancoPreguntas indexar(List<Path> archivos) throws IOException {
+        List<Path> copia = List.copyOf(archivos);
+        ListaPosiciones todas = new ListaPosiciones();
+        Map<String, ListaPosiciones> grupos = new HashMap<>();
+
+        for (int idArchivo = 0; idArchivo < copia.size(); idArchivo++) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(copia.get(idArchivo).toFile()), 64 * 1024)) {
+                ByteArrayOutputStream linea = new ByteArrayOutputStream(512);
+                long offset = 0, inicioLinea = 0;
+                int numLinea = 0;
+                int b;
+                while (true) {
+                    b = in.read();
+                    if (b == '\n' || b == -1) {
+                        numLinea++;
+                        // Saltar las 2 primeras lineas (titulo + cabecera)
+                        if (numLinea > 2 && linea.size() > 0) {
+                            String[] partes = linea.toString(StandardCharsets.UTF_8).trim().split(",");
+                            if (esValida(partes)) {
+                                long posicion = ((long) idArchivo << BITS_OFFSET) | inicioLinea;
+                                todas.anadir(posicion);
+                                grupos.computeIfAbsent(clave(Pregunta.categoriaDe(partes), Pregunta.dificultadDe(partes)),
+                                        k -> new ListaPosiciones()).anadir(posicion);
+                            }
+                        }
+                        if (b == -1) break;
+                        linea.reset();
+                        inicioLinea = offset + 1;
+                    } else {
+                        linea.write(b);
+                    }
+                    offset++;
+                }
+            }
+        }
+
+        Map<String, long[]> porGrupo = new HashMap<>();
+        grupos.forEach((k, v) -> porGrupo.put(k, v.toArray()));
+        return new BancoPreguntas(copia, todas.toArray(), porGrupo);
+    }
+
+    // Banco a partir de un stream (recurso del classpath, FTP...): se copia a un
+    // fichero temporal para poder leer preguntas sueltas por offset
+    public static BancoPreguntas desdeStream(InputStream in) throws IOException {
+        Path copia = Files.createTempFile("preguntas-", ".csv");
+        copia.toFile().deleteOnExit();
+        Files.copy(in, copia, StandardCopyOption.REPLACE_EXISTING);
+        return indexar(List.of(copia));
+    }
+
+    // Todas las preguntas en orden de fichero
+    public List<Pregunta> todas() throws IOException {
+        return leer(todas);
+    }
+
+    // K preguntas al azar (sin repetir) de la categoria/dificultad indicadas.
+    // null en categoria o dificultad significa "cualquiera".
+    public List<Pregunta> muestrear(String categoria, String dificultad, int k, Random random) throws IOException {
+        List<long[]> candidatas = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<String, long[]> grupo : porGrupo.entrySet()) {
+            String[] cd = grupo.getKey().split("\\|", 2);
+            if ((categoria == null || cd[0].equalsIgnoreCase(categoria))
+                    && (dificultad == null || cd[1].equalsIgnoreCase(dificultad))) {
+                candidatas.add(grupo.getValue());
+                total += grupo.getValue().length;
+            }
+        }
+        k = Math.min(k, total);
+
+        // Algoritmo de Floyd: k indices distintos en [0, total) con O(k) pasos
+        Set<Integer> elegidos = new LinkedHashSet<>();
+        for (int j = total - k; j < total; j++) {
+            int t = random.nextInt(j + 1);
+            elegidos.add(elegidos.contains(t) ? j : t);
+        }
+
+        long[] posiciones = new long[k];
+        int n = 0;
+        for (int indice : elegidos) {
+            for (long[] grupo : candidatas) {
+                if (indice < grupo.length) {
+                    posiciones[n++] = grupo[indice];
+                    break;
+                }
+                indice -= grupo.length;
+            }
+        }
+        List<Pregunta> resultado = leer(posiciones);
+        Collections.shuffle(resultado, random); // Floyd no da un orden uniforme
+        return resultado;
+    }
+
+    public int getNumPreguntas() { return todas.length; }
+
+    public Set<String> getGrupos() { return Collections.unmodifiableSet(porGrupo.keySet()); }
+
+    // Leer y parsear solo las lineas indicadas
+    private List<Pregunta> leer(long[] posiciones) throws IOException {
+        List<Pregunta> preguntas = new ArrayList<>(posiciones.length);
+        RandomAccessFile[] abiertos = new RandomAccessFile[archivos.size()];
+        try {
+            ByteArrayOutputStream linea = new ByteArrayOutputStream(512);
+            byte[] buffer = new byte[512];
+            for (long posicion : posiciones) {
+                int idArchivo = (int) (posicion >>> BITS_OFFSET);
+                if (abiertos[idArchivo] == null) {
+                    abiertos[idArchivo] = new RandomAccessFile(archivos.get(idArchivo).toFile(), "r");
+                }
+                RandomAccessFile raf = abiertos[idArchivo];
+                raf.seek(posicion & MASCARA_OFFSET);
+                linea.reset();
+                leerLinea:
+                while (true) {
+                    int leidos = raf.read(buffer);
+                    if (leidos <= 0) break;
+                    for (int i = 0; i < leidos; i++) {
+                        if (buffer[i] == '\n') {
+                            linea.write(buffer, 0, i);
+                            break leerLinea;
+                        }
+                    }
+                    linea.write(buffer, 0, leidos);
+                }
+                preguntas.add(Pregunta.fromBlooketCSV(linea.toString(StandardCharsets.UTF_8).trim()));
+            }
+        } finally {
+            for (RandomAccessFile raf : abiertos) {
+                if (raf != null) raf.close();
+            }
+        }
+        return preguntas;
+    }
+
+    private static boolean esValida(String[] partes) {
+        if (partes.length < 8) return false;
+        try {
+            int numRespuesta = Integer.parseInt(partes[7].trim());
+            return numRespuesta >= 1 && numRespuesta <= 4;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String clave(String categoria, String dificultad) {
+        return categoria + "|" + dificultad;
+    }
+
+    // Lista de longs que crece sin boxing
+    private static class ListaPosiciones {
+        private long[] datos = new long[64];
+        private int tamano = 0;
+
+        void anadir(long valor) {
+            if (tamano == datos.length) datos = Arrays.copyOf(datos, tamano * 2);
+            datos[tamano++] = valor;
+        }
+
+        long[] toArray() { return Arrays.copyOf(datos, tamano); }
+    }
+}
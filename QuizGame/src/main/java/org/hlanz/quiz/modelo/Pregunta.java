@@ -1,28 +1,42 @@
 package org.hlanz.quiz.modelo;
 
-import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
-
 public class Pregunta {
+    public static final int TIEMPO_LIMITE_POR_DEFECTO = 15; // segundos si el CSV no lo indica
+    public static final int TIEMPO_LIMITE_MAX = 300;        // maximo que admite Blooket
+    public static final String CATEGORIA_POR_DEFECTO = "general";
+    public static final String DIFICULTAD_POR_DEFECTO = "normal";
+
     private String pregunta;
     private String opcionA;
     private String opcionB;
     private String opcionC;
     private String opcionD;
     private char respuestaCorrecta; // A, B, C o D
+    private int tiempoLimiteSeg;
+    private String categoria;
+    private String dificultad;
 
     public Pregunta(String pregunta, String opcionA, String opcionB, String opcionC, String opcionD, char respuestaCorrecta) {
+        this(pregunta, opcionA, opcionB, opcionC, opcionD, respuestaCorrecta,
+                TIEMPO_LIMITE_POR_DEFECTO, CATEGORIA_POR_DEFECTO, DIFICULTAD_POR_DEFECTO);
+    }
+
+    public Pregunta(String pregunta, String opcionA, String opcionB, String opcionC, String opcionD, char respuestaCorrecta,
+                    int tiempoLimiteSeg, String categoria, String dificultad) {
         this.pregunta = pregunta;
         this.opcionA = opcionA;
         this.opcionB = opcionB;
         this.opcionC = opcionC;
         this.opcionD = opcionD;
         this.respuestaCorrecta = Character.toUpperCase(respuestaCorrecta);
+        this.tiempoLimiteSeg = tiempoLimiteSeg;
+        this.categoria = categoria;
+        this.dificultad = dificultad;
     }
 
     // Parsear linea del Blooket CSV (separado por comas)
     // Formato: numero,pregunta,opcion1,opcion2,opcion3,opcion4,tiempoLimite,respuestaCorrecta(1-4)
+    // Opcionalmente dos columnas mas al final: categoria,dificultad
     public static Pregunta fromBlooketCSV(String linea) {
         String[] partes = linea.split(",");
         if (partes.length < 8) {
@@ -39,31 +53,30 @@ public class Pregunta {
                 partes[3].trim(),  // opcion B (Answer 2)
                 partes[4].trim(),  // opcion C (Answer 3)
                 partes[5].trim(),  // opcion D (Answer 4)
-                letraRespuesta
+                letraRespuesta,
+                parsearTiempoLimite(partes[6]),
+                categoriaDe(partes),
+                dificultadDe(partes)
         );
     }
 
-    // Cargar lista de preguntas desde InputStream (fichero local o FTP)
-    // Formato Blooket: primera linea titulo, segunda linea cabecera, luego datos
-    public static List<Pregunta> cargarDesdeCSV(InputStream inputStream) throws IOException {
-        List<Pregunta> preguntas = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String linea;
-            int numLinea = 0;
-            while ((linea = reader.readLine()) != null) {
-                numLinea++;
-                // Saltar las 2 primeras lineas (titulo + cabecera)
-                if (numLinea <= 2) continue;
-                if (!linea.trim().isEmpty()) {
-                    try {
-                        preguntas.add(fromBlooketCSV(linea));
-                    } catch (Exception e) {
-                        System.out.println("[WARN] Error parseando linea " + numLinea + ": " + e.getMessage());
-                    }
-                }
-            }
+    // Columna "Time Limit (sec)": vacia o invalida -> valor por defecto, maximo 300s
+    private static int parsearTiempoLimite(String valor) {
+        try {
+            int seg = Integer.parseInt(valor.trim());
+            return seg > 0 ? Math.min(seg, TIEMPO_LIMITE_MAX) : TIEMPO_LIMITE_POR_DEFECTO;
+        } catch (NumberFormatException e) {
+            return TIEMPO_LIMITE_POR_DEFECTO;
         }
-        return preguntas;
+    }
+
+    // Categoria y dificultad de una linea ya separada (columnas opcionales 9 y 10)
+    public static String categoriaDe(String[] partes) {
+        return partes.length > 8 && !partes[8].isBlank() ? partes[8].trim().toLowerCase() : CATEGORIA_POR_DEFECTO;
+    }
+
+    public static String dificultadDe(String[] partes) {
+        return partes.length > 9 && !partes[9].isBlank() ? partes[9].trim().toLowerCase() : DIFICULTAD_POR_DEFECTO;
     }
 
     public boolean esCorrecta(char respuesta) {
@@ -76,4 +89,7 @@ public class Pregunta {
     public String getOpcionC() { return opcionC; }
     public String getOpcionD() { return opcionD; }
     public char getRespuestaCorrecta() { return respuestaCorrecta; }
+    public int getTiempoLimiteSeg() { return tiempoLimiteSeg; }
+    public String getCategoria() { return categoria; }
+    public String getDificultad() { return dificultad; }
 }
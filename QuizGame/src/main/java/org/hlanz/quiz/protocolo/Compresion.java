@@ -0,0 +1,165 @@
+package org.hlanz.quiz.protocolo;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresion deflate (zlib) del body de los mensajes.
+ *
+ * Se negocia por conexion: el cliente anade "Accept-Encoding: deflate" a su
+ * POST /join (o /resume, /watch) y a partir de ahi el servidor puede mandarle
+ * mensajes con "Content-Encoding: deflate", cuyo Content-Length es el del body
+ * comprimido. Cada mensaje lo indica por separado, asi que los cortos (RESULT,
+ * WAIT...) siguen yendo en claro. LectorMensajes descomprime al leer.
+ */
+public final class Compresion {
+    public static final String ACEPTAR = "Accept-Encoding";
+    public static final String CODIFICACION = "Content-Encoding";
+    public static final String DEFLATE = "deflate";
+
+    // Bodies mas cortos (en bytes) se envian siempre en claro: no compensa
+    public static final int UMBRAL = Integer.getInteger("quiz.compresion.umbral", 256);
+    // Con un pool, los bodies de mas de un bloque se comprimen por bloques en paralelo
+    private static final int BLOQUE_PARALELO = 128 * 1024;
+    // Ventana de deflate: cada bloque usa como diccionario el final del anterior
+    private static final int VENTANA = 32 * 1024;
+    private static final byte[] CABECERA_ZLIB = {0x78, (byte) 0x9C};
+
+    private Compresion() {
+    }
+
+    // true si el mensaje (peticion del cliente) pide respuestas comprimidas
+    public static boolean aceptada(Map<String, String> mensaje) {
+        String valor = mensaje.get(ACEPTAR);
+        return valor != null && valor.toLowerCase().contains(DEFLATE);
+    }
+
+    // Datos comprimidos, o null si no llegan al umbral o no ocupan menos que en claro
+    public static byte[] comprimir(byte[] datos) {
+        if (datos.length < UMBRAL) return null;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(datos);
+            deflater.finish();
+            byte[] salida = new byte[datos.length];
+            int longitud = 0;
+            while (!deflater.finished() && longitud < salida.length) {
+                longitud += deflater.deflate(salida, longitud, salida.length - longitud);
+            }
+            return deflater.finished() ? Arrays.copyOf(salida, longitud) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Igual, pero repartiendo los bodies grandes (rankings de salas enormes) en
+    // bloques que se comprimen a la vez en el pool. El resultado es un unico
+    // flujo zlib valido: cabecera, los bloques deflate crudos (todos menos el
+    // ultimo cerrados con SYNC_FLUSH) y el Adler-32 del total.
+    public static byte[] comprimir(byte[] datos, ForkJoinPool pool) {
+        if (pool == null || datos.length < 2 * BLOQUE_PARALELO) return comprimir(datos);
+        int bloques = (datos.length + BLOQUE_PARALELO - 1) / BLOQUE_PARALELO;
+        byte[][] comprimidos = pool.invoke(new CompresionBloques(datos, 0, bloques));
+        Adler32 adler = new Adler32();
+        adler.update(datos);
+        int total = CABECERA_ZLIB.length + 4;
+        for (byte[] c : comprimidos) total += c.length;
+        if (total >= datos.length) return null;
+
+        byte[] salida = Arrays.copyOf(CABECERA_ZLIB, total);
+        int posicion = CABECERA_ZLIB.length;
+        for (byte[] c : comprimidos) {
+            System.arraycopy(c, 0, salida, posicion, c.length);
+            posicion += c.length;
+        }
+        long suma = adler.getValue();
+        for (int i = 3; i >= 0; i--) salida[posicion++] = (byte) (suma >>> (8 * i));
+        return salida;
+    }
+
+    // Bloques [desde, hasta) comprimidos por separado, cada uno en su tarea
+    @SuppressWarnings("serial") // tarea del pool, nunca se serializa
+    private static class CompresionBloques extends RecursiveTask<byte[][]> {
+        private final byte[] datos;
+        private final int desde;
+        private final int hasta;
+
+        CompresionBloques(byte[] datos, int desde, int hasta) {
+            this.datos = datos;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected byte[][] compute() {
+            if (hasta - desde == 1) return new byte[][]{comprimirBloque(datos, desde)};
+            int mitad = (desde + hasta) >>> 1;
+            CompresionBloques izquierda = new CompresionBloques(datos, desde, mitad);
+            izquierda.fork();
+            byte[][] derecha = new CompresionBloques(datos, mitad, hasta).compute();
+            byte[][] todos = Arrays.copyOf(izquierda.join(), hasta - desde);
+            System.arraycopy(derecha, 0, todos, mitad - desde, derecha.length);
+            return todos;
+        }
+    }
+
+    private static byte[] comprimirBloque(byte[] datos, int bloque) {
+        int inicio = bloque * BLOQUE_PARALELO;
+        int fin = Math.min(datos.length, inicio + BLOQUE_PARALELO);
+        boolean ultimo = fin == datos.length;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (inicio > 0) {
+                int diccionario = Math.min(VENTANA, inicio);
+                deflater.setDictionary(datos, inicio - diccionario, diccionario);
+            }
+            deflater.setInput(datos, inicio, fin - inicio);
+            if (ultimo) deflater.finish();
+            byte[] salida = new byte[(fin - inicio) / 2 + 64];
+            int longitud = 0;
+            while (true) {
+                if (longitud == salida.length) salida = Arrays.copyOf(salida, salida.length * 2);
+                longitud += deflater.deflate(salida, longitud, salida.length - longitud,
+                        ultimo ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                // Sin FINISH, el bloque esta completo cuando el flush no llena la salida
+                if (ultimo ? deflater.finished() : longitud < salida.length) break;
+            }
+            return Arrays.copyOf(salida, longitud);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Descomprimir un body; falla si pasa de maximo bytes (no se infla sin limite)
+    public static byte[] descomprimir(byte[] datos, int desde, int longitud, int maximo) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(datos, desde, longitud);
+            byte[] salida = new byte[Math.min(maximo, Math.max(64, longitud * 4))];
+            int total = 0;
+            while (!inflater.finished()) {
+                if (total == salida.length) {
+                    if (salida.length >= maximo) throw new IOException("Body descomprimido demasiado grande");
+                    salida = Arrays.copyOf(salida, (int) Math.min(maximo, salida.length * 2L));
+                }
+                int n = inflater.inflate(salida, total, salida.length - total);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Body deflate incompleto");
+                }
+                total += n;
+            }
+            return total == salida.length ? salida : Arrays.copyOf(salida, total);
+        } catch (DataFormatException e) {
+            throw new IOException("Body deflate invalido: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.hlanz.quiz.protocolo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream con los datos de las tramas WebSocket del cliente, ya sin
+ * mascara y concatenados.
+ *
+ * Los mensajes del protocolo llevan su propio Content-Length, asi que da igual
+ * como los trocee el cliente en tramas (texto, binario o continuaciones):
+ * LectorMensajes los lee de aqui igual que de un socket TCP. Las tramas de
+ * control se atienden al vuelo: ping se contesta con pong y cierre termina el
+ * stream (read devuelve -1).
+ */
+public class EntradaWebSocket extends InputStream {
+    private static final int OP_CONTROL = 0x8; // opcodes 0x8-0xF
+    private static final int MAX_CONTROL = 125;
+
+    private final InputStream entrada;
+    private final SalidaWebSocket salida;
+
+    private final byte[] cabecera = new byte[12]; // longitud extendida + mascara
+    private long restantes = 0;          // datos pendientes de la trama actual
+    private final byte[] mascara = new byte[4];
+    private int posicionMascara = 0;
+    private boolean cerrada = false;
+
+    public EntradaWebSocket(InputStream entrada, SalidaWebSocket salida) {
+        this.entrada = entrada;
+        this.salida = salida;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!siguienteDato()) return -1;
+        int b = entrada.read();
+        if (b < 0) throw new EOFException("Trama WebSocket incompleta");
+        restantes--;
+        return (b ^ mascara[posicionMascara++ & 3]) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] destino, int desde, int longitud) throws IOException {
+        if (longitud == 0) return 0;
+        if (!siguienteDato()) return -1;
+        int leidos = entrada.read(destino, desde, (int) Math.min(longitud, restantes));
+        if (leidos < 0) throw new EOFException("Trama WebSocket incompleta");
+        for (int i = desde; i < desde + leidos; i++) {
+            destino[i] ^= mascara[posicionMascara++ & 3];
+        }
+        restantes -= leidos;
+        return leidos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        entrada.close();
+    }
+
+    // Avanza hasta una trama con datos pendientes; false si el cliente cerro
+    private boolean siguienteDato() throws IOException {
+        while (restantes == 0) {
+            if (cerrada) return false;
+            int primero = entrada.read();
+            if (primero < 0) return false;
+            int segundo = leerByte();
+            int opcode = primero & 0x0F;
+            if ((primero & 0x70) != 0) throw new IOException("Extension WebSocket no negociada");
+            if ((segundo & 0x80) == 0) throw new IOException("Trama WebSocket del cliente sin mascara");
+
+            // El resto de la cabecera de una vez: longitud extendida (0, 2 u 8 bytes) y mascara
+            long longitud = segundo & 0x7F;
+            int extendida = longitud == 126 ? 2 : longitud == 127 ? 8 : 0;
+            leerCompleto(cabecera, extendida + 4);
+            if (extendida > 0) {
+                longitud = 0;
+                for (int i = 0; i < extendida; i++) longitud = (longitud << 8) | (cabecera[i] & 0xFF);
+                if (longitud < 0) throw new IOException("Trama WebSocket demasiado larga");
+            }
+            System.arraycopy(cabecera, extendida, mascara, 0, 4);
+            posicionMascara = 0;
+
+            if (opcode >= OP_CONTROL) {
+                atenderControl(opcode, longitud);
+            } else if (opcode == WebSocket.OP_TEXTO || opcode == WebSocket.OP_BINARIO
+                    || opcode == WebSocket.OP_CONTINUACION) {
+                restantes = longitud;
+            } else {
+                throw new IOException("Opcode WebSocket desconocido: " + opcode);
+            }
+        }
+        return true;
+    }
+
+    private void atenderControl(int opcode, long longitud) throws IOException {
+        if (longitud > MAX_CONTROL) throw new IOException("Trama de control demasiado larga");
+        byte[] datos = new byte[(int) longitud];
+        leerCompleto(datos, datos.length);
+        for (int i = 0; i < datos.length; i++) datos[i] ^= mascara[i & 3];
+        if (opcode == WebSocket.OP_PING) {
+            salida.pong(datos);
+        } else if (opcode == WebSocket.OP_CIERRE) {
+            cerrada = true;
+            salida.cerrar(datos);
+        }
+        // OP_PONG: nada que hacer
+    }
+
+    private void leerCompleto(byte[] destino, int longitud) throws IOException {
+        if (entrada.readNBytes(destino, 0, longitud) < longitud) {
+            throw new EOFException("Trama WebSocket incompleta");
+        }
+    }
+
+    private int leerByte() throws IOException {
+        int b = entrada.read();
+        if (b < 0) throw new EOFException("Trama WebSocket incompleta");
+        return b;
+    }
+}
@@ -1,14 +1,16 @@
 package org.hlanz.quiz.protocolo;
 
-import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Utilidad para construir y parsear peticiones/respuestas HTTP
  * sobre sockets TCP persistentes.
  *
- * Cliente -> Servidor: peticiones HTTP (POST /join, POST /answer)
+ * Cliente -> Servidor: peticiones HTTP (POST /join, POST /resume, POST /answer)
  * Servidor -> Cliente: respuestas HTTP (200 OK con X-Type)
  */
 public class HttpUtil {
@@ -22,14 +24,27 @@ public class HttpUtil {
     //
     //   A
     public static String buildRequest(String method, String path, String body) {
+        return buildRequest(method, path, Map.of(), body);
+    }
+
+    // Igual pero con cabeceras adicionales (p. ej. X-Room en POST /join)
+    public static String buildRequest(String method, String path, Map<String, String> headers, String body) {
         StringBuilder sb = new StringBuilder();
         sb.append(method).append(" ").append(path).append(" HTTP/1.1\r\n");
-        sb.append("Content-Length: ").append(body.length()).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        sb.append("Content-Length: ").append(longitudUtf8(body)).append("\r\n");
         sb.append("\r\n");
         sb.append(body);
         return sb.toString();
     }
 
+    // Peticion ya codificada en bytes (UTF-8) para escribirla directamente al socket
+    public static byte[] encodeRequest(String method, String path, Map<String, String> headers, String body) {
+        return buildRequest(method, path, headers, body).getBytes(StandardCharsets.UTF_8);
+    }
+
     // Construir respuesta HTTP (servidor -> cliente)
     // Ejemplo:
     //   HTTP/1.1 200 OK
@@ -41,30 +56,54 @@ public class HttpUtil {
         StringBuilder sb = new StringBuilder();
         sb.append("HTTP/1.1 200 OK\r\n");
         sb.append("X-Type: ").append(type).append("\r\n");
-        sb.append("Content-Length: ").append(body.length()).append("\r\n");
+        sb.append("Content-Length: ").append(longitudUtf8(body)).append("\r\n");
         sb.append("\r\n");
         sb.append(body);
         return sb.toString();
     }
 
+    // Respuesta ya codificada en bytes (UTF-8), para construirla una sola vez
+    // en un broadcast y escribir el mismo array a todos los destinatarios
+    public static byte[] encodeResponse(String type, String body) {
+        return buildResponse(type, body).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Igual pero con el body comprimido (Content-Encoding: deflate), o null si
+    // el body no llega al umbral de compresion o no se reduce
+    public static byte[] encodeResponseComprimida(String type, String body) {
+        return encodeResponseComprimida(type, body, null);
+    }
+
+    // Con un pool los bodies grandes se comprimen por bloques en paralelo
+    public static byte[] encodeResponseComprimida(String type, String body, ForkJoinPool pool) {
+        byte[] comprimido = Compresion.comprimir(body.getBytes(StandardCharsets.UTF_8), pool);
+        if (comprimido == null) return null;
+        byte[] cabeceras = ("HTTP/1.1 200 OK\r\n"
+                + "X-Type: " + type + "\r\n"
+                + Compresion.CODIFICACION + ": " + Compresion.DEFLATE + "\r\n"
+                + "Content-Length: " + comprimido.length + "\r\n"
+                + "\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] mensaje = Arrays.copyOf(cabeceras, cabeceras.length + comprimido.length);
+        System.arraycopy(comprimido, 0, mensaje, cabeceras.length, comprimido.length);
+        return mensaje;
+    }
+
     // ============= PARSEAR MENSAJES =============
 
-    // Parsear un mensaje HTTP desde un BufferedReader.
+    // Parsear la primera linea y las cabeceras de un mensaje HTTP (sin el body,
+    // que lo lee LectorMensajes segun Content-Length).
     // Devuelve un Map con las claves:
     //   "firstLine" -> "POST /answer HTTP/1.1" o "HTTP/1.1 200 OK"
     //   "method"    -> "POST" (solo en requests)
     //   "path"      -> "/answer" (solo en requests)
     //   "X-Type"    -> "QUESTION" (solo en responses)
-    //   "Content-Length" -> "35"
-    //   "body"      -> contenido del body
-    public static Map<String, String> parse(BufferedReader reader) throws IOException {
+    //   "Content-Length" -> "35" (en bytes)
+    public static Map<String, String> parseCabeceras(String cabeceras) {
         Map<String, String> resultado = new HashMap<>();
+        String[] lineas = cabeceras.split("\n");
 
-        // Leer primera linea (request line o status line)
-        String primeraLinea = reader.readLine();
-        if (primeraLinea == null) {
-            return null; // Conexion cerrada
-        }
+        // Primera linea (request line o status line)
+        String primeraLinea = quitarRetorno(lineas[0]);
         resultado.put("firstLine", primeraLinea);
 
         // Detectar si es request o response
@@ -81,37 +120,46 @@ public class HttpUtil {
             }
         }
 
-        // Leer headers hasta linea vacia
-        String linea;
-        while ((linea = reader.readLine()) != null && !linea.isEmpty()) {
+        // Headers hasta la linea vacia
+        for (int i = 1; i < lineas.length; i++) {
+            String linea = quitarRetorno(lineas[i]);
+            if (linea.isEmpty()) break;
             int separador = linea.indexOf(": ");
             if (separador > 0) {
-                String clave = linea.substring(0, separador);
-                String valor = linea.substring(separador + 2);
-                resultado.put(clave, valor);
+                resultado.put(linea.substring(0, separador), linea.substring(separador + 2));
             }
         }
+        return resultado;
+    }
 
-        // Leer body segun Content-Length
-        String contentLength = resultado.get("Content-Length");
-        if (contentLength != null) {
-            int length = Integer.parseInt(contentLength);
-            if (length > 0) {
-                char[] bodyChars = new char[length];
-                int leidos = 0;
-                while (leidos < length) {
-                    int r = reader.read(bodyChars, leidos, length - leidos);
-                    if (r == -1) break;
-                    leidos += r;
-                }
-                resultado.put("body", new String(bodyChars, 0, leidos));
-            } else {
-                resultado.put("body", "");
-            }
-        } else {
-            resultado.put("body", "");
+    // Content-Length del mensaje (0 si no viene)
+    public static int contentLength(Map<String, String> mensaje) {
+        String valor = mensaje.get("Content-Length");
+        if (valor == null) return 0;
+        try {
+            return Math.max(0, Integer.parseInt(valor.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
         }
+    }
 
-        return resultado;
+    private static String quitarRetorno(String linea) {
+        return linea.endsWith("\r") ? linea.substring(0, linea.length() - 1) : linea;
+    }
+
+    // Bytes que ocupa el body en UTF-8 sin codificarlo
+    private static int longitudUtf8(String texto) {
+        int bytes = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) bytes += 1;
+            else if (c < 0x800) bytes += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < texto.length()
+                    && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else bytes += 3;
+        }
+        return bytes;
     }
 }
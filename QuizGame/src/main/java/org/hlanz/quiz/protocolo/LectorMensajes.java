@@ -0,0 +1,226 @@
+package org.hlanz.quiz.protocolo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Lee mensajes HTTP de un stream usando buffers prestados del pool.
+ *
+ * Mientras la conexion esta inactiva no hay buffer: se bloquea leyendo un
+ * unico byte y solo entonces se pide uno al pool. En cuanto el mensaje esta
+ * completo, si no quedan bytes pendientes, el buffer se devuelve. Asi una
+ * conexion ociosa solo ocupa este objeto y no los 8K+8K chars de un
+ * BufferedReader/InputStreamReader.
+ */
+public class LectorMensajes {
+    private static final int TAMANO_INICIAL = 512;
+    private static final int MAX_CABECERAS = 8 * 1024;
+    private static final byte[] CONTENT_LENGTH = "content-length: ".getBytes(StandardCharsets.US_ASCII);
+
+    private final InputStream entrada;
+    private final int maxCuerpo;
+    private final PoolBuffers pool;
+
+    // Buffer prestado (null si no hay nada pendiente) y bytes validos [inicio, fin)
+    private ByteBuffer buffer;
+    private int inicio, fin;
+    // Primer byte ya leido por esperar() (-1 si no hay)
+    private int pendiente = -1;
+    // Bytes (cabeceras + body) del ultimo mensaje leido
+    private int tamanoUltimo;
+
+    // Usa el pool de heap: leer de un InputStream necesita el byte[] del buffer
+    public LectorMensajes(InputStream entrada, int maxCuerpo) {
+        this.entrada = entrada;
+        this.maxCuerpo = maxCuerpo;
+        this.pool = PoolBuffers.HEAP;
+    }
+
+    // Bloquea hasta que llega el primer byte del siguiente mensaje (sin pedir
+    // buffer todavia). false si la conexion se cerro.
+    public boolean esperar() throws IOException {
+        if (buffer != null || pendiente >= 0) return true;
+        pendiente = entrada.read();
+        return pendiente >= 0;
+    }
+
+    // Siguiente mensaje (ver HttpUtil.parseCabeceras) o null si la conexion se cerro
+    public Map<String, String> leer() throws IOException {
+        if (!prepararBuffer()) return null;
+        try {
+            int finCabeceras = leerCabeceras();
+            if (finCabeceras < 0) return cerrarEnMitad();
+            Map<String, String> resultado = HttpUtil.parseCabeceras(
+                    new String(buffer.array(), inicio, finCabeceras - inicio, StandardCharsets.UTF_8));
+
+            // Body segun Content-Length (en bytes)
+            int longitud = HttpUtil.contentLength(resultado);
+            if (longitud > maxCuerpo) throw new IOException("Body demasiado grande: " + longitud + " bytes");
+            int cabeceras = finCabeceras - inicio;
+            while (fin - inicio < cabeceras + longitud) {
+                if (!rellenar(cabeceras + longitud)) return cerrarEnMitad();
+            }
+            int inicioCuerpo = inicio + cabeceras;
+            tamanoUltimo = cabeceras + longitud;
+            if (Compresion.DEFLATE.equals(resultado.get(Compresion.CODIFICACION))) {
+                byte[] cuerpo = Compresion.descomprimir(buffer.array(), inicioCuerpo, longitud, maxCuerpo);
+                resultado.put("body", new String(cuerpo, StandardCharsets.UTF_8));
+            } else {
+                resultado.put("body", new String(buffer.array(), inicioCuerpo, longitud, StandardCharsets.UTF_8));
+            }
+            inicio = inicioCuerpo + longitud;
+
+            if (inicio == fin) liberar();
+            return resultado;
+        } catch (IOException e) {
+            liberar();
+            throw e;
+        }
+    }
+
+    // Saltar el siguiente mensaje sin parsearlo (peticiones descartadas por el
+    // limitador): solo se busca el fin de cabeceras y el Content-Length, sin
+    // crear Strings ni Maps. false si la conexion se cerro.
+    public boolean descartar() throws IOException {
+        if (!prepararBuffer()) return false;
+        try {
+            int finCabeceras = leerCabeceras();
+            if (finCabeceras < 0) {
+                liberar();
+                return false;
+            }
+            long restantes = contentLength(inicio, finCabeceras);
+            inicio = finCabeceras;
+            long enBuffer = Math.min(restantes, fin - inicio);
+            inicio += (int) enBuffer;
+            restantes -= enBuffer;
+            if (inicio == fin) liberar();
+            // El resto del body se lee y se tira sin pasar por el buffer
+            while (restantes > 0) {
+                long saltados = entrada.skip(restantes);
+                if (saltados <= 0) {
+                    if (entrada.read() < 0) return false;
+                    saltados = 1;
+                }
+                restantes -= saltados;
+            }
+            return true;
+        } catch (IOException e) {
+            liberar();
+            throw e;
+        }
+    }
+
+    // Devolver el buffer al pool (al cerrar la conexion)
+    public void liberar() {
+        if (buffer != null) {
+            pool.devolver(buffer);
+            buffer = null;
+        }
+    }
+
+    // Bytes ya leidos del stream que aun no son de ningun mensaje, para pasar la
+    // conexion a quien vaya a leerla directamente. Devuelve el buffer al pool.
+    public byte[] extraerPendientes() {
+        byte[] resto;
+        if (pendiente >= 0) {
+            resto = new byte[]{(byte) pendiente};
+            pendiente = -1;
+        } else if (buffer != null) {
+            resto = Arrays.copyOfRange(buffer.array(), inicio, fin);
+        } else {
+            resto = new byte[0];
+        }
+        liberar();
+        return resto;
+    }
+
+    public boolean tieneBuffer() { return buffer != null; }
+    public int getTamanoUltimo() { return tamanoUltimo; }
+
+    // Asegurar un buffer con al menos el primer byte del mensaje
+    private boolean prepararBuffer() throws IOException {
+        if (buffer != null) return true;
+        int primero = pendiente >= 0 ? pendiente : entrada.read(); // espera sin retener buffer
+        pendiente = -1;
+        if (primero < 0) return false;
+        buffer = pool.pedir(TAMANO_INICIAL);
+        buffer.array()[0] = (byte) primero;
+        inicio = 0;
+        fin = 1;
+        return true;
+    }
+
+    // Leer hasta la primera linea vacia: indice del fin de cabeceras o -1 si se cerro
+    private int leerCabeceras() throws IOException {
+        int finCabeceras;
+        while ((finCabeceras = buscarFinCabeceras()) < 0) {
+            if (fin - inicio > MAX_CABECERAS) throw new IOException("Cabeceras demasiado largas");
+            if (!rellenar(fin - inicio + 1)) return -1;
+        }
+        return finCabeceras;
+    }
+
+    // Content-Length buscado directamente en los bytes de las cabeceras
+    private long contentLength(int desde, int hasta) {
+        byte[] datos = buffer.array();
+        byte[] clave = CONTENT_LENGTH;
+        for (int i = desde; i + clave.length <= hasta; i++) {
+            if (i > desde && datos[i - 1] != '\n') continue;
+            int j = 0;
+            while (j < clave.length && Character.toLowerCase(datos[i + j]) == clave[j]) j++;
+            if (j < clave.length) continue;
+            long valor = 0;
+            for (int k = i + j; k < hasta && datos[k] >= '0' && datos[k] <= '9'; k++) {
+                valor = valor * 10 + (datos[k] - '0');
+            }
+            return valor;
+        }
+        return 0;
+    }
+
+    // Leer mas bytes asegurando sitio para 'necesarios' bytes desde inicio
+    private boolean rellenar(int necesarios) throws IOException {
+        byte[] datos = buffer.array();
+        if (inicio + necesarios > datos.length) {
+            if (necesarios <= datos.length) {
+                // Cabe compactando lo pendiente al principio
+                System.arraycopy(datos, inicio, datos, 0, fin - inicio);
+            } else {
+                // Pasar a una clase mayor
+                ByteBuffer mayor = pool.pedir(Math.max(necesarios, datos.length * 2));
+                System.arraycopy(datos, inicio, mayor.array(), 0, fin - inicio);
+                pool.devolver(buffer);
+                buffer = mayor;
+                datos = mayor.array();
+            }
+            fin -= inicio;
+            inicio = 0;
+        }
+        int leidos = entrada.read(datos, fin, datos.length - fin);
+        if (leidos < 0) return false;
+        fin += leidos;
+        return true;
+    }
+
+    // Indice justo despues de "\r\n\r\n" (o "\n\n"), o -1 si aun no ha llegado
+    private int buscarFinCabeceras() {
+        byte[] datos = buffer.array();
+        for (int i = inicio; i < fin; i++) {
+            if (datos[i] != '\n') continue;
+            if (i + 1 < fin && datos[i + 1] == '\n') return i + 2;
+            if (i + 2 < fin && datos[i + 1] == '\r' && datos[i + 2] == '\n') return i + 3;
+        }
+        return -1;
+    }
+
+    // La conexion se cerro con un mensaje a medias
+    private Map<String, String> cerrarEnMitad() {
+        liberar();
+        return null;
+    }
+}
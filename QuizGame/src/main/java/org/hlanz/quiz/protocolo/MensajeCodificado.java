@@ -0,0 +1,47 @@
+package org.hlanz.quiz.protocolo;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Respuesta de broadcast codificada una sola vez para todos los destinatarios.
+ *
+ * La version comprimida se calcula la primera vez que la pide un destinatario
+ * que negocio deflate (nunca, si nadie lo hizo) y desde entonces todos
+ * comparten ese mismo array, igual que comparten el de la version en claro.
+ * Con un pool (rankings de salas muy grandes) esa compresion se reparte en
+ * bloques entre sus hilos.
+ */
+public class MensajeCodificado {
+    private final String tipo;
+    private final String body;
+    private final byte[] plano;
+    private final ForkJoinPool pool; // null = comprimir en el hilo que lo pide
+    private volatile byte[] comprimido; // == plano si no compensa comprimir
+
+    public MensajeCodificado(String tipo, String body) {
+        this(tipo, body, null);
+    }
+
+    public MensajeCodificado(String tipo, String body, ForkJoinPool pool) {
+        this.tipo = tipo;
+        this.body = body;
+        this.pool = pool;
+        this.plano = HttpUtil.encodeResponse(tipo, body);
+    }
+
+    // Bytes para un destinatario con o sin deflate negociado. Si dos hilos piden
+    // la version comprimida a la vez ambos calculan lo mismo: da igual cual quede.
+    public byte[] para(boolean deflate) {
+        if (!deflate) return plano;
+        byte[] c = comprimido;
+        if (c == null) {
+            c = HttpUtil.encodeResponseComprimida(tipo, body, pool);
+            if (c == null) c = plano;
+            comprimido = c;
+        }
+        return c;
+    }
+
+    public byte[] plano() { return plano; }
+    public String getTipo() { return tipo; }
+}
@@ -0,0 +1,75 @@
+package org.hlanz.quiz.protocolo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool de buffers de bytes por clases de tamano (512 B, 4 KB, 64 KB).
+ *
+ * Las conexiones piden un buffer solo mientras tienen datos a medio leer y lo
+ * devuelven en cuanto terminan, asi que un jugador inactivo no retiene memoria
+ * de E/S. Peticiones mayores que la clase mas grande se sirven con un buffer
+ * suelto que no vuelve al pool. Cada clase guarda como mucho MAX_POR_CLASE
+ * buffers libres; el resto se deja al GC.
+ */
+public class PoolBuffers {
+    private static final int[] TAMANOS = {512, 4 * 1024, 64 * 1024};
+    private static final int MAX_POR_CLASE = 1024;
+
+    // Buffers de heap para E/S con streams (InputStream necesita un byte[])
+    public static final PoolBuffers HEAP = new PoolBuffers(false);
+    // Buffers directos para E/S con canales NIO (-Dquiz.buffers.directos=false para desactivarlos)
+    public static final PoolBuffers DIRECTO = new PoolBuffers(
+            Boolean.parseBoolean(System.getProperty("quiz.buffers.directos", "true")));
+
+    private final boolean directos;
+    private final ByteBuffer[][] libres = new ByteBuffer[TAMANOS.length][MAX_POR_CLASE];
+    private final int[] numLibres = new int[TAMANOS.length];
+
+    public PoolBuffers(boolean directos) {
+        this.directos = directos;
+    }
+
+    // Buffer limpio con al menos 'minimo' bytes de capacidad
+    public ByteBuffer pedir(int minimo) {
+        int clase = claseDe(minimo);
+        if (clase < 0) return ByteBuffer.allocate(minimo); // demasiado grande: no se agrupa
+        synchronized (libres[clase]) {
+            if (numLibres[clase] > 0) {
+                ByteBuffer b = libres[clase][--numLibres[clase]];
+                libres[clase][numLibres[clase]] = null;
+                b.clear();
+                return b;
+            }
+        }
+        return directos ? ByteBuffer.allocateDirect(TAMANOS[clase]) : ByteBuffer.allocate(TAMANOS[clase]);
+    }
+
+    public void devolver(ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != directos) return;
+        int clase = claseExacta(buffer.capacity());
+        if (clase < 0) return;
+        synchronized (libres[clase]) {
+            if (numLibres[clase] < MAX_POR_CLASE) {
+                libres[clase][numLibres[clase]++] = buffer;
+            }
+        }
+    }
+
+    public static int tamanoMaximo() {
+        return TAMANOS[TAMANOS.length - 1];
+    }
+
+    private static int claseDe(int minimo) {
+        for (int i = 0; i < TAMANOS.length; i++) {
+            if (minimo <= TAMANOS[i]) return i;
+        }
+        return -1;
+    }
+
+    private static int claseExacta(int capacidad) {
+        for (int i = 0; i < TAMANOS.length; i++) {
+            if (capacidad == TAMANOS[i]) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,87 @@
+package org.hlanz.quiz.protocolo;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Pregunta enviada por adelantado y cifrada, para que el arranque de la ronda
+ * sea un mensaje de pocos bytes.
+ *
+ * El cliente lo pide con "X-Preload: 1" en su POST /join (o /resume). Durante
+ * la pausa entre preguntas el servidor le manda PRELOAD con la siguiente
+ * pregunta cifrada ("numero\ncifrado", AES-CTR con una clave nueva por
+ * pregunta, en Base64) y al abrir la ronda REVEAL con la clave
+ * ("numero clave"). Hasta entonces el cliente no puede leerla. Quien no tiene
+ * el PRELOAD de esa pregunta (no lo pidio, se unio o reconecto despues)
+ * recibe el QUESTION normal.
+ */
+public final class Precarga {
+    public static final String CABECERA = "X-Preload";
+
+    private static final SecureRandom ALEATORIO = new SecureRandom();
+    private static final int BYTES_CLAVE = 16;
+    // Cada clave cifra un solo texto, asi que el contador puede empezar en cero
+    private static final IvParameterSpec CONTADOR = new IvParameterSpec(new byte[16]);
+
+    private final int numero;
+    private final String cifrado;
+    private final String clave;
+
+    private Precarga(int numero, String cifrado, String clave) {
+        this.numero = numero;
+        this.cifrado = cifrado;
+        this.clave = clave;
+    }
+
+    // true si la peticion del cliente pide las preguntas por adelantado
+    public static boolean aceptada(Map<String, String> peticion) {
+        return "1".equals(peticion.get(CABECERA));
+    }
+
+    // Cifrar el body de la pregunta numero (1..n) con una clave nueva
+    public static Precarga cifrar(int numero, String texto) {
+        byte[] clave = new byte[BYTES_CLAVE];
+        ALEATORIO.nextBytes(clave);
+        byte[] cifrado = aes(Cipher.ENCRYPT_MODE, clave, texto.getBytes(StandardCharsets.UTF_8));
+        Base64.Encoder base64 = Base64.getEncoder();
+        return new Precarga(numero, base64.encodeToString(cifrado), base64.encodeToString(clave));
+    }
+
+    // Body del QUESTION a partir del de PRELOAD y el de REVEAL, o null si no son de la misma pregunta
+    public static String descifrar(String precarga, String revelacion) {
+        int salto = precarga.indexOf('\n');
+        int espacio = revelacion.indexOf(' ');
+        if (salto < 0 || espacio < 0 || !precarga.substring(0, salto).equals(revelacion.substring(0, espacio))) {
+            return null;
+        }
+        Base64.Decoder base64 = Base64.getDecoder();
+        try {
+            byte[] texto = aes(Cipher.DECRYPT_MODE, base64.decode(revelacion.substring(espacio + 1).trim()),
+                    base64.decode(precarga.substring(salto + 1).trim()));
+            return new String(texto, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] aes(int modo, byte[] clave, byte[] datos) {
+        try {
+            Cipher cifrador = Cipher.getInstance("AES/CTR/NoPadding");
+            cifrador.init(modo, new SecretKeySpec(clave, "AES"), CONTADOR);
+            return cifrador.doFinal(datos);
+        } catch (GeneralSecurityException e) {
+            // AES/CTR esta en toda JVM; con una clave mal formada no hay texto que devolver
+            throw new IllegalArgumentException("No se pudo aplicar AES/CTR: " + e.getMessage(), e);
+        }
+    }
+
+    public int getNumero() { return numero; }
+    public String cuerpoPrecarga() { return numero + "\n" + cifrado; }
+    public String cuerpoRevelacion() { return numero + " " + clave; }
+}
@@ -0,0 +1,85 @@
+package org.hlanz.quiz.protocolo;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * OutputStream que envia cada write() como una trama WebSocket.
+ *
+ * Quien escribe ya lo hace mensaje a mensaje (enviarBytes, el canal de
+ * espectadores), asi que una trama = un mensaje. Los datos no se copian: se
+ * escribe la cabecera y detras el mismo array que reciben los jugadores TCP.
+ * El buffer pequeno solo junta la cabecera con los mensajes cortos para no
+ * mandar dos segmentos; los largos pasan directos al socket.
+ *
+ * Los mensajes van en tramas de texto salvo los de body comprimido
+ * (Content-Encoding: deflate), que no son UTF-8 valido: esos van en tramas
+ * binarias, porque en una de texto el navegador cerraria la conexion (1007).
+ */
+public class SalidaWebSocket extends OutputStream {
+    private static final int TAMANO_BUFFER = 1024;
+    private static final byte[] MARCA_DEFLATE =
+            (Compresion.CODIFICACION + ": " + Compresion.DEFLATE + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream salida;
+    private boolean cerrada = false;
+
+    public SalidaWebSocket(OutputStream salida) {
+        this.salida = new BufferedOutputStream(salida, TAMANO_BUFFER);
+    }
+
+    @Override
+    public synchronized void write(byte[] datos, int desde, int longitud) throws IOException {
+        escribirTrama(comprimido(datos, desde, longitud) ? WebSocket.OP_BINARIO : WebSocket.OP_TEXTO,
+                datos, desde, longitud);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        salida.flush();
+    }
+
+    // Respuesta a un ping del cliente con sus mismos datos
+    synchronized void pong(byte[] datos) throws IOException {
+        escribirTrama(WebSocket.OP_PONG, datos, 0, datos.length);
+        salida.flush();
+    }
+
+    // Trama de cierre (eco del codigo del cliente); despues ya no se envia nada
+    synchronized void cerrar(byte[] codigo) throws IOException {
+        if (cerrada) return;
+        escribirTrama(WebSocket.OP_CIERRE, codigo, 0, Math.min(codigo.length, 2));
+        salida.flush();
+        cerrada = true;
+    }
+
+    // true si las cabeceras del mensaje (hasta la primera linea vacia) dicen que el body va comprimido
+    static boolean comprimido(byte[] datos, int desde, int longitud) {
+        int fin = desde + longitud;
+        for (int i = desde; i + MARCA_DEFLATE.length <= fin; i++) {
+            if (datos[i] == '\r' && datos[i + 1] == '\n' && datos[i + 2] == '\r' && datos[i + 3] == '\n') return false;
+            if (coincide(datos, i, MARCA_DEFLATE)) return true;
+        }
+        return false;
+    }
+
+    private static boolean coincide(byte[] datos, int desde, byte[] marca) {
+        for (int j = 0; j < marca.length; j++) {
+            if (datos[desde + j] != marca[j]) return false;
+        }
+        return true;
+    }
+
+    private void escribirTrama(int opcode, byte[] datos, int desde, int longitud) throws IOException {
+        if (cerrada) throw new IOException("WebSocket cerrado");
+        salida.write(WebSocket.cabeceraTrama(opcode, longitud));
+        salida.write(datos, desde, longitud);
+    }
+}
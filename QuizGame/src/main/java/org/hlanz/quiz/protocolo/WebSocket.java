@@ -0,0 +1,91 @@
+package org.hlanz.quiz.protocolo;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Handshake y cabeceras de trama WebSocket (RFC 6455).
+ *
+ * Por WebSocket viajan los mismos mensajes que por TCP (POST /join, /answer,
+ * respuestas con X-Type...): cada trama lleva un mensaje completo tal cual (de
+ * texto, o binaria si su body va comprimido). Asi el servidor reutiliza el
+ * mismo lector y el mismo array de bytes de los broadcasts; solo cambia la
+ * cabecera de 2-10 bytes que va delante.
+ */
+public final class WebSocket {
+    public static final int OP_CONTINUACION = 0x0;
+    public static final int OP_TEXTO = 0x1;
+    public static final int OP_BINARIO = 0x2;
+    public static final int OP_CIERRE = 0x8;
+    public static final int OP_PING = 0x9;
+    public static final int OP_PONG = 0xA;
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    public static final byte[] RECHAZO = ("HTTP/1.1 400 Bad Request\r\n"
+            + "Sec-WebSocket-Version: 13\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    // Sin hilos libres para otra conexion
+    public static final byte[] OCUPADO = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Content-Length: 0\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private WebSocket() {
+    }
+
+    // Respuesta 101 a una peticion de upgrade valida, o null si no lo es
+    public static byte[] aceptar(Map<String, String> peticion) {
+        if (peticion == null || !"GET".equals(peticion.get("method"))) return null;
+        String upgrade = cabecera(peticion, "Upgrade");
+        String version = cabecera(peticion, "Sec-WebSocket-Version");
+        String clave = cabecera(peticion, "Sec-WebSocket-Key");
+        if (upgrade == null || !upgrade.trim().equalsIgnoreCase("websocket")
+                || version == null || !version.trim().equals("13") || clave == null) {
+            return null;
+        }
+        return ("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + claveAceptacion(clave.trim()) + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // base64(SHA-1(clave + GUID))
+    public static String claveAceptacion(String clave) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] resumen = sha1.digest((clave + GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(resumen);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 no disponible", e);
+        }
+    }
+
+    // Cabecera de una trama final sin mascara (las del servidor) con 'longitud' bytes de datos
+    public static byte[] cabeceraTrama(int opcode, long longitud) {
+        byte primero = (byte) (0x80 | opcode);
+        if (longitud < 126) {
+            return new byte[]{primero, (byte) longitud};
+        }
+        if (longitud <= 0xFFFF) {
+            return new byte[]{primero, 126, (byte) (longitud >>> 8), (byte) longitud};
+        }
+        byte[] cabecera = new byte[10];
+        cabecera[0] = primero;
+        cabecera[1] = 127;
+        for (int i = 0; i < 8; i++) cabecera[2 + i] = (byte) (longitud >>> (56 - 8 * i));
+        return cabecera;
+    }
+
+    // Los navegadores no coinciden en mayusculas en las cabeceras del handshake
+    private static String cabecera(Map<String, String> peticion, String nombre) {
+        for (Map.Entry<String, String> entrada : peticion.entrySet()) {
+            if (entrada.getKey().equalsIgnoreCase(nombre)) return entrada.getValue();
+        }
+        return null;
+    }
+}
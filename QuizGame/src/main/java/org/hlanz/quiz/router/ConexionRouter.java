@@ -0,0 +1,178 @@
+package org.hlanz.quiz.router;
+
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.protocolo.Compresion;
+import org.hlanz.quiz.protocolo.HttpUtil;
+import org.hlanz.quiz.protocolo.LectorMensajes;
+import org.hlanz.quiz.protocolo.PoolBuffers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Una conexion de cliente a traves del router.
+ *
+ * El router hace de servidor solo hasta la primera peticion: envia la
+ * bienvenida, lee POST /join (o /watch, /resume), elige el nodo, le reenvia la
+ * peticion descartando la bienvenida del nodo y a partir de ahi empalma los dos
+ * sockets sin mirar lo que pasa. /resume se prueba en cada nodo hasta que uno
+ * reconoce el token, porque el router no ve los TOKEN que emiten los nodos.
+ */
+public class ConexionRouter implements Runnable {
+    private static final int MAX_CUERPO = 64 * 1024;
+    private static final int TAMANO_COPIA = 64 * 1024;
+    private static final byte[] BIENVENIDA =
+            HttpUtil.encodeResponse("WELCOME", "Conectado al Quiz! Envia POST /join con tu nombre");
+    // Claves que pone HttpUtil.parseCabeceras y no son cabeceras del mensaje
+    private static final Set<String> CLAVES_INTERNAS = Set.of("firstLine", "tipo", "method", "path", "body");
+
+    private final SocketChannel cliente;
+    private final RouterQuiz router;
+
+    public ConexionRouter(SocketChannel cliente, RouterQuiz router) {
+        this.cliente = cliente;
+        this.router = router;
+    }
+
+    @Override
+    public void run() {
+        SocketChannel nodo = null;
+        try {
+            cliente.socket().setTcpNoDelay(true);
+            escribir(cliente, BIENVENIDA);
+            LectorMensajes entrada = new LectorMensajes(Channels.newInputStream(cliente), MAX_CUERPO);
+            Map<String, String> peticion = entrada.leer();
+            if (peticion == null) return;
+            byte[] resto = entrada.extraerPendientes();
+            byte[] reenvio = recodificar(peticion);
+
+            if ("/resume".equals(peticion.get("path"))) {
+                nodo = reanudar(reenvio);
+            } else {
+                Nodo elegido = router.elegir(peticion.get("X-Room"));
+                if (elegido == null) {
+                    escribir(cliente, HttpUtil.encodeResponse("ERROR", "No hay servidores disponibles"));
+                    return;
+                }
+                nodo = abrir(elegido, reenvio);
+                Log.debug("[router] " + cliente.getRemoteAddress() + " -> " + elegido);
+            }
+            if (nodo == null) return;
+            escribir(nodo, resto);
+
+            // Desde aqui solo se copian bytes: la vuelta en otro hilo, la ida en este
+            SocketChannel destino = nodo;
+            router.ejecutar(() -> copiar(destino, cliente));
+            copiar(cliente, nodo);
+            nodo = null; // copiar() ya cerro los dos
+        } catch (IOException e) {
+            Log.debug("[-] Router: conexion perdida: " + e.getMessage());
+        } finally {
+            cerrar(cliente);
+            if (nodo != null) cerrar(nodo);
+        }
+    }
+
+    // Conectar con el nodo, saltarse su bienvenida y pasarle la peticion del cliente
+    private SocketChannel abrir(Nodo elegido, byte[] reenvio) throws IOException {
+        SocketChannel nodo = elegido.conectar();
+        try {
+            LectorMensajes entradaNodo = new LectorMensajes(Channels.newInputStream(nodo), MAX_CUERPO);
+            if (entradaNodo.leer() == null) throw new IOException("el nodo " + elegido + " cerro la conexion");
+            escribir(cliente, entradaNodo.extraerPendientes());
+            escribir(nodo, reenvio);
+            return nodo;
+        } catch (IOException e) {
+            cerrar(nodo);
+            throw e;
+        }
+    }
+
+    // El token solo lo conoce el nodo que lo emitio: el primero que contesta WELCOME
+    private SocketChannel reanudar(byte[] reenvio) throws IOException {
+        byte[] rechazo = HttpUtil.encodeResponse("ERROR", "Token de sesion invalido o caducado");
+        for (Nodo candidato : router.getNodos()) {
+            if (!candidato.estaDisponible()) continue;
+            SocketChannel nodo;
+            try {
+                nodo = abrir(candidato, new byte[0]);
+            } catch (IOException e) {
+                continue;
+            }
+            LectorMensajes entradaNodo = new LectorMensajes(Channels.newInputStream(nodo), MAX_CUERPO);
+            try {
+                escribir(nodo, reenvio);
+                // Lo que llegue antes del WELCOME (o del ERROR) no es la respuesta al /resume
+                Map<String, String> respuesta = entradaNodo.leer();
+                while (respuesta != null && !"WELCOME".equals(respuesta.get("X-Type"))
+                        && !"ERROR".equals(respuesta.get("X-Type"))) {
+                    respuesta = entradaNodo.leer();
+                }
+                if (respuesta != null && "WELCOME".equals(respuesta.get("X-Type"))) {
+                    escribir(cliente, HttpUtil.encodeResponse("WELCOME", respuesta.get("body")));
+                    escribir(cliente, entradaNodo.extraerPendientes());
+                    return nodo;
+                }
+                if (respuesta != null) rechazo = HttpUtil.encodeResponse(respuesta.get("X-Type"), respuesta.get("body"));
+            } catch (IOException e) {
+                Log.debug("[-] Router: fallo reanudando en " + candidato + ": " + e.getMessage());
+            }
+            entradaNodo.liberar();
+            cerrar(nodo);
+        }
+        escribir(cliente, rechazo);
+        return null;
+    }
+
+    // La peticion tal como la envio el cliente. LectorMensajes ya descomprimio el
+    // body, asi que no se copia Content-Encoding
+    private static byte[] recodificar(Map<String, String> peticion) {
+        Map<String, String> cabeceras = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : peticion.entrySet()) {
+            String clave = e.getKey();
+            if (CLAVES_INTERNAS.contains(clave) || clave.equalsIgnoreCase("Content-Length")
+                    || clave.equalsIgnoreCase(Compresion.CODIFICACION)) {
+                continue;
+            }
+            cabeceras.put(clave, e.getValue());
+        }
+        return HttpUtil.encodeRequest(peticion.get("method"), peticion.get("path"), cabeceras, peticion.get("body"));
+    }
+
+    // Copia de un socket a otro hasta que uno se cierre. Los bytes van de socket a
+    // socket a traves de un buffer directo, sin pasar por el heap de Java.
+    // Al terminar cierra los dos, lo que tambien termina el otro sentido.
+    private static void copiar(SocketChannel origen, SocketChannel destino) {
+        ByteBuffer buffer = PoolBuffers.DIRECTO.pedir(TAMANO_COPIA);
+        try {
+            while (origen.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) destino.write(buffer);
+                buffer.clear();
+            }
+        } catch (IOException ignored) {
+            // el otro sentido cerro los sockets o la conexion se cayo
+        } finally {
+            PoolBuffers.DIRECTO.devolver(buffer);
+            cerrar(origen);
+            cerrar(destino);
+        }
+    }
+
+    private static void escribir(SocketChannel canal, byte[] datos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(datos);
+        while (buffer.hasRemaining()) canal.write(buffer);
+    }
+
+    private static void cerrar(SocketChannel canal) {
+        try {
+            canal.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.hlanz.quiz.router;
+
+import org.hlanz.quiz.protocolo.HttpUtil;
+import org.hlanz.quiz.protocolo.LectorMensajes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Un ServidorQuiz detras del router: su puerto de juego, su puerto de
+ * administracion y la ultima carga que informo (GET /salas).
+ */
+public class Nodo {
+    private static final int TIMEOUT_MS = 2000;
+    private static final int MAX_CUERPO = 1024 * 1024;
+
+    private final String host;
+    private final int puerto;
+    private final int puertoAdmin;
+
+    // Ultimo informe. Entre informes se cuentan las conexiones enviadas para no
+    // mandar todas las salas nuevas al mismo nodo hasta que se actualice
+    private volatile boolean disponible = false;
+    private volatile int jugadores = 0;
+    private volatile Set<String> salas = Set.of();
+    private final AtomicInteger enviadasDesdeInforme = new AtomicInteger();
+
+    public Nodo(String host, int puerto, int puertoAdmin) {
+        this.host = host;
+        this.puerto = puerto;
+        this.puertoAdmin = puertoAdmin;
+    }
+
+    // "host:puerto/puertoAdmin" (p. ej. 127.0.0.1:9080/9081)
+    public static Nodo parsear(String texto) {
+        String[] partes = texto.trim().split("[:/]");
+        if (partes.length != 3) throw new IllegalArgumentException("Nodo invalido (host:puerto/admin): " + texto);
+        return new Nodo(partes[0], Integer.parseInt(partes[1]), Integer.parseInt(partes[2]));
+    }
+
+    // Pedir la carga al nodo; si no contesta deja de recibir conexiones nuevas
+    public void actualizar() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, puertoAdmin), TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+            OutputStream salida = socket.getOutputStream();
+            salida.write(HttpUtil.encodeRequest("GET", "/salas", Map.of(), ""));
+            salida.flush();
+            LectorMensajes entrada = new LectorMensajes(socket.getInputStream(), MAX_CUERPO);
+            Map<String, String> respuesta;
+            try {
+                respuesta = entrada.leer();
+            } finally {
+                entrada.liberar();
+            }
+            if (respuesta == null || !"ADMIN".equals(respuesta.get("X-Type"))) throw new IOException("respuesta invalida");
+
+            // Una linea "jugadores sala" por sala abierta
+            int total = 0;
+            Set<String> nombres = new HashSet<>();
+            for (String linea : respuesta.get("body").split("\n")) {
+                int espacio = linea.indexOf(' ');
+                if (espacio <= 0) continue;
+                total += Integer.parseInt(linea.substring(0, espacio));
+                nombres.add(linea.substring(espacio + 1));
+            }
+            jugadores = total;
+            salas = nombres;
+            enviadasDesdeInforme.set(0);
+            disponible = true;
+        } catch (IOException | RuntimeException e) {
+            disponible = false;
+        }
+    }
+
+    public SocketChannel conectar() throws IOException {
+        SocketChannel canal = SocketChannel.open();
+        try {
+            canal.socket().connect(new InetSocketAddress(host, puerto), TIMEOUT_MS);
+            canal.socket().setTcpNoDelay(true);
+            return canal;
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    public void contarEnviada() {
+        enviadasDesdeInforme.incrementAndGet();
+    }
+
+    // Jugadores segun el ultimo informe mas las conexiones enviadas desde entonces
+    public int getCarga() { return jugadores + enviadasDesdeInforme.get(); }
+    public boolean estaDisponible() { return disponible; }
+    public Set<String> getSalas() { return salas; }
+
+    @Override
+    public String toString() { return host + ":" + puerto; }
+}
@@ -0,0 +1,137 @@
+package org.hlanz.quiz.router;
+
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.servidor.GestorSalas;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Router delante de varios ServidorQuiz (nodos), cada uno con sus propias salas.
+ *
+ *   -Dquiz.router.puerto=8090
+ *   -Dquiz.router.nodos=127.0.0.1:8080/8081,127.0.0.1:9080/9081   (host:puerto/puertoAdmin)
+ *   -Dquiz.router.intervalo=2000   ms entre consultas de carga (GET /salas de cada nodo)
+ *
+ * Todos los jugadores de una sala van al mismo nodo. Una sala que ningun nodo
+ * tiene se asigna al que menos jugadores tiene. Los nodos que no contestan a
+ * la consulta de carga no reciben conexiones nuevas. Para probar en local:
+ * arrancar cada nodo con -Dquiz.puerto, -Dquiz.admin.puerto y -Dquiz.ws.puerto
+ * distintos. Solo enruta el protocolo TCP en claro (tiene que leer el /join).
+ */
+public class RouterQuiz {
+    private static final int PUERTO = Integer.getInteger("quiz.router.puerto", 8090);
+    private static final String NODOS = System.getProperty("quiz.router.nodos", "127.0.0.1:8080/8081");
+    private static final long INTERVALO_MS = Long.getLong("quiz.router.intervalo", 2000);
+    // Una sala asignada que su nodo no informa (aun no se ha creado o ya termino)
+    private static final long VIDA_ASIGNACION_MS = 30_000;
+
+    // Sala -> nodo, con el ultimo momento en que se asigno o el nodo la informo
+    private static class Asignacion {
+        final Nodo nodo;
+        final long instante;
+
+        Asignacion(Nodo nodo, long instante) {
+            this.nodo = nodo;
+            this.instante = instante;
+        }
+    }
+
+    private final List<Nodo> nodos;
+    private final Map<String, Asignacion> salas = new ConcurrentHashMap<>();
+    // Cada conexion ocupa dos hilos (uno por sentido) mientras dura la partida
+    private final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "router");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RouterQuiz(List<Nodo> nodos) {
+        this.nodos = nodos;
+    }
+
+    public static void main(String[] args) {
+        List<Nodo> nodos = new ArrayList<>();
+        for (String nodo : NODOS.split(",")) {
+            if (!nodo.isBlank()) nodos.add(Nodo.parsear(nodo));
+        }
+        RouterQuiz router = new RouterQuiz(nodos);
+        router.actualizarCarga();
+
+        Log.info("=== ROUTER QUIZ ===");
+        Log.info("Puerto: " + PUERTO);
+        Log.info("Nodos: " + nodos);
+
+        ScheduledExecutorService informes = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "router-carga");
+            t.setDaemon(true);
+            return t;
+        });
+        informes.scheduleWithFixedDelay(router::actualizarCarga, INTERVALO_MS, INTERVALO_MS, TimeUnit.MILLISECONDS);
+
+        try (ServerSocketChannel servidor = ServerSocketChannel.open()) {
+            servidor.bind(new InetSocketAddress(PUERTO));
+            while (true) {
+                SocketChannel cliente = servidor.accept();
+                router.ejecutar(new ConexionRouter(cliente, router));
+            }
+        } catch (IOException e) {
+            Log.error("[ERROR] Fallo aceptando conexiones en el puerto " + PUERTO, e);
+        }
+    }
+
+    // Nodo de la sala (la asigna al menos cargado si aun no lo tiene), o null si no hay ninguno disponible
+    public Nodo elegir(String nombreSala) {
+        String clave = (nombreSala == null || nombreSala.isBlank()) ? GestorSalas.SALA_POR_DEFECTO : nombreSala.trim();
+        Asignacion asignacion = salas.compute(clave, (k, actual) -> {
+            if (actual != null && actual.nodo.estaDisponible()) return actual;
+            Nodo nodo = menosCargado();
+            return nodo != null ? new Asignacion(nodo, System.currentTimeMillis()) : null;
+        });
+        if (asignacion == null) return null;
+        asignacion.nodo.contarEnviada();
+        return asignacion.nodo;
+    }
+
+    // Consultar la carga de todos los nodos. Las salas que informa un nodo son
+    // suyas; las asignadas que nadie informa caducan
+    public void actualizarCarga() {
+        long ahora = System.currentTimeMillis();
+        for (Nodo nodo : nodos) {
+            boolean estaba = nodo.estaDisponible();
+            nodo.actualizar();
+            if (estaba != nodo.estaDisponible()) {
+                Log.info("[router] Nodo " + nodo + (nodo.estaDisponible() ? " disponible" : " no responde"));
+            }
+            if (!nodo.estaDisponible()) continue;
+            for (String sala : nodo.getSalas()) {
+                salas.put(sala, new Asignacion(nodo, ahora));
+            }
+        }
+        salas.values().removeIf(a -> ahora - a.instante > VIDA_ASIGNACION_MS);
+    }
+
+    public void ejecutar(Runnable tarea) {
+        pool.execute(tarea);
+    }
+
+    public List<Nodo> getNodos() { return nodos; }
+
+    private Nodo menosCargado() {
+        Nodo mejor = null;
+        for (Nodo nodo : nodos) {
+            if (nodo.estaDisponible() && (mejor == null || nodo.getCarga() < mejor.getCarga())) mejor = nodo;
+        }
+        return mejor;
+    }
+}
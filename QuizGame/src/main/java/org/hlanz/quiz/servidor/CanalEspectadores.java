@@ -0,0 +1,99 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.protocolo.MensajeCodificado;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Flujo de mensajes de una sala para espectadores (POST /watch).
+ *
+ * Un espectador no ocupa ningun hilo mientras mira: se suscribe con su cola de
+ * salida y cada broadcast de la sala deja en ella el mismo array de bytes que
+ * reciben los jugadores. Como las colas nunca bloquean la sala no espera a
+ * nadie; un espectador que no lee llena la suya y se le cierra la conexion.
+ *   -Dquiz.espectadores.max=4096   espectadores por sala
+ *
+ * Ademas guarda los ultimos CAPACIDAD mensajes en un buffer circular de un solo
+ * productor (el broadcast de la sala, serializado por su monitor). La posicion
+ * de cada mensaje en el canal es tambien su numero de secuencia en el
+ * multicast, y ese historial sirve para reenviar los que se pierdan.
+ *
+ * Cada hueco guarda el mensaje junto con su secuencia: el productor escribe el
+ * hueco antes de contar el mensaje como publicado, asi que mirar solo el contador
+ * no basta para saber que mensaje hay dentro. Quien lee comprueba la secuencia
+ * de lo que ha leido y, si no es la que buscaba, lo trata como sobrescrito.
+ */
+public class CanalEspectadores {
+    public static final int MAX_ESPECTADORES = Integer.getInteger("quiz.espectadores.max", 4096);
+    private static final int CAPACIDAD = 64;
+
+    // Mensaje publicado con su secuencia (inmutable: se lee entero o no se lee)
+    private static final class Publicado {
+        final long seq;
+        final MensajeCodificado mensaje;
+
+        Publicado(long seq, MensajeCodificado mensaje) {
+            this.seq = seq;
+            this.mensaje = mensaje;
+        }
+    }
+
+    private static final class Espectador {
+        final ColaSalida cola;
+        final boolean deflate;
+
+        Espectador(ColaSalida cola, boolean deflate) {
+            this.cola = cola;
+            this.deflate = deflate;
+        }
+    }
+
+    private final Publicado[] mensajes = new Publicado[CAPACIDAD];
+    private volatile long publicados = 0; // total de mensajes publicados
+    // Suscripciones y cierre, con el monitor del canal
+    private final List<Espectador> espectadores = new ArrayList<>();
+    private boolean cerrado = false;
+
+    // Solo lo llama la sala (un productor cada vez). Devuelve la secuencia del mensaje.
+    // Con el monitor del canal, para que un espectador que se suscribe a la vez no
+    // reciba el mensaje dos veces ni se lo salte
+    public synchronized long publicar(MensajeCodificado mensaje) {
+        long seq = publicados;
+        mensajes[(int) (seq % CAPACIDAD)] = new Publicado(seq, mensaje);
+        publicados = seq + 1;
+        for (Iterator<Espectador> it = espectadores.iterator(); it.hasNext(); ) {
+            Espectador espectador = it.next();
+            if (!espectador.cola.encolar(mensaje.para(espectador.deflate))) it.remove(); // desbordada o caida
+        }
+        return seq;
+    }
+
+    // Mensaje con esa secuencia, o null si aun no se ha publicado o ya se sobrescribio
+    public MensajeCodificado obtener(long seq) {
+        if (seq < 0 || seq >= publicados) return null;
+        Publicado publicado = mensajes[(int) (seq % CAPACIDAD)];
+        return publicado != null && publicado.seq == seq ? publicado.mensaje : null;
+    }
+
+    // Empieza por el ultimo mensaje publicado y recibe todo lo que se publique
+    // despues. Devuelve false si el canal ya se cerro o esta lleno.
+    public synchronized boolean suscribir(ColaSalida cola, boolean deflate) {
+        if (cerrado || espectadores.size() >= MAX_ESPECTADORES) return false;
+        MensajeCodificado ultimo = obtener(publicados - 1);
+        if (ultimo != null && !cola.encolar(ultimo.para(deflate))) return false;
+        espectadores.add(new Espectador(cola, deflate));
+        return true;
+    }
+
+    // Tras el ultimo mensaje (END) cada espectador recibe lo pendiente y se cierra su conexion
+    public synchronized void cerrar() {
+        cerrado = true;
+        for (Espectador espectador : espectadores) espectador.cola.terminar();
+        espectadores.clear();
+    }
+
+    public synchronized int getEspectadores() { return espectadores.size(); }
+    public long getPublicados() { return publicados; }
+}
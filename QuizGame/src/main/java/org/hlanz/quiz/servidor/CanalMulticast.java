@@ -0,0 +1,134 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.protocolo.MensajeCodificado;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Broadcasts de las salas por UDP multicast, para aulas con todos los jugadores
+ * en la misma LAN (-Dquiz.multicast.grupo=239.255.42.99, solo ServidorQuiz).
+ *
+ *   -Dquiz.multicast.puerto=4446       puerto del grupo
+ *   -Dquiz.multicast.interfaz=IP       interfaz de salida (127.0.0.1 para probar en local)
+ *   -Dquiz.multicast.ttl=1             saltos (1 = no sale de la red local)
+ *
+ * Cada mensaje sale una sola vez al grupo, sea cual sea el numero de jugadores,
+ * con X-Room y X-Seq (su posicion en el canal de la sala) detras de la linea de
+ * estado. Los jugadores que lo piden en /join (X-Multicast: 1) dejan de recibir
+ * los broadcasts por TCP; si les falta un numero lo piden por TCP con
+ * POST /replay y se les reenvia desde el historial del CanalEspectadores.
+ * Las respuestas siguen yendo por POST /answer.
+ */
+public class CanalMulticast {
+    private static final String GRUPO = System.getProperty("quiz.multicast.grupo");
+    private static final int PUERTO = Integer.getInteger("quiz.multicast.puerto", 4446);
+    private static final String INTERFAZ = System.getProperty("quiz.multicast.interfaz");
+    private static final int TTL = Integer.getInteger("quiz.multicast.ttl", 1);
+    // Carga util maxima de UDP sobre IPv4; lo que no cabe se recupera por /replay
+    private static final int MAX_DATAGRAMA = 65507;
+
+    private final MulticastSocket socket;
+    private final InetSocketAddress grupo;
+    // Los datagramas salen de un hilo propio, en orden, y no con el monitor de la sala
+    private final ExecutorService emisor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "multicast");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LongAdder enviados = new LongAdder();
+    private final LongAdder bytesEnviados = new LongAdder();
+    private final LongAdder demasiadoGrandes = new LongAdder();
+    private final LongAdder reenviados = new LongAdder();
+
+    private CanalMulticast(MulticastSocket socket, InetSocketAddress grupo) {
+        this.socket = socket;
+        this.grupo = grupo;
+    }
+
+    // Canal configurado, o null si no hay grupo o no se pudo abrir
+    public static CanalMulticast abrir() {
+        if (GRUPO == null) return null;
+        try {
+            InetSocketAddress grupo = new InetSocketAddress(InetAddress.getByName(GRUPO), PUERTO);
+            if (!grupo.getAddress().isMulticastAddress()) {
+                Log.warn("[WARN] " + GRUPO + " no es una direccion multicast");
+                return null;
+            }
+            MulticastSocket socket = new MulticastSocket();
+            socket.setTimeToLive(TTL);
+            if (INTERFAZ != null) {
+                socket.setNetworkInterface(NetworkInterface.getByInetAddress(InetAddress.getByName(INTERFAZ)));
+            }
+            Log.info("[i] Multicast de las salas en " + GRUPO + ":" + PUERTO);
+            return new CanalMulticast(socket, grupo);
+        } catch (IOException e) {
+            Log.warn("[WARN] No se pudo abrir el multicast " + GRUPO + ":" + PUERTO + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Lo llama la sala dentro de su broadcast (una vez por mensaje); no bloquea
+    public void enviar(String sala, long seq, MensajeCodificado mensaje) {
+        emisor.execute(() -> emitir(sala, seq, mensaje));
+    }
+
+    private void emitir(String sala, long seq, MensajeCodificado mensaje) {
+        byte[] datagrama = codificar(sala, seq, mensaje);
+        if (datagrama.length > MAX_DATAGRAMA) {
+            demasiadoGrandes.increment();
+            return;
+        }
+        try {
+            socket.send(new DatagramPacket(datagrama, datagrama.length, grupo));
+            enviados.increment();
+            bytesEnviados.add(datagrama.length);
+        } catch (IOException e) {
+            Log.debug("[-] Fallo enviando multicast de la sala " + sala + ": " + e.getMessage());
+        }
+    }
+
+    // Mensaje de la sala con X-Room y X-Seq. Detras va el mismo array que
+    // reciben los jugadores (comprimido si compensa: los clientes de multicast
+    // siempre descomprimen). Tambien es la respuesta a POST /replay.
+    public static byte[] codificar(String sala, long seq, MensajeCodificado mensaje) {
+        byte[] original = mensaje.para(true);
+        byte[] extra = ("X-Room: " + sala + "\r\nX-Seq: " + seq + "\r\n").getBytes(StandardCharsets.UTF_8);
+        int finLinea = 0;
+        while (original[finLinea++] != '\n') ;
+        byte[] datagrama = new byte[original.length + extra.length];
+        System.arraycopy(original, 0, datagrama, 0, finLinea);
+        System.arraycopy(extra, 0, datagrama, finLinea, extra.length);
+        System.arraycopy(original, finLinea, datagrama, finLinea + extra.length, original.length - finLinea);
+        return datagrama;
+    }
+
+    // Respuesta a POST /replay cuando el mensaje ya no esta en el historial
+    public static byte[] codificarPerdido(String sala, long seq) {
+        return codificar(sala, seq, new MensajeCodificado("GONE", ""));
+    }
+
+    public void contarReenvio() {
+        reenviados.increment();
+    }
+
+    // "239.255.42.99:4446", tal como se anuncia a los clientes
+    public String getDireccion() {
+        return grupo.getAddress().getHostAddress() + ":" + grupo.getPort();
+    }
+
+    public String resumen() {
+        return "grupo=" + getDireccion() + " datagramas=" + enviados.sum() + " bytes=" + bytesEnviados.sum()
+                + " demasiado_grandes=" + demasiadoGrandes.sum() + " reenvios_tcp=" + reenviados.sum() + "\n";
+    }
+}
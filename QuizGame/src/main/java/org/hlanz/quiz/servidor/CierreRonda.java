@@ -0,0 +1,206 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.protocolo.MensajeCodificado;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+
+/**
+ * Fin de ronda de una sala: puntuar, ordenar el ranking y formatearlo y
+ * codificarlo para el broadcast.
+ *
+ * Con menos de UMBRAL jugadores todo va en el hilo de la partida, como siempre.
+ * Con mas se reparte en un ForkJoinPool por particiones de IDs del registro:
+ * cada tarea puntua su particion (solo escribe los puntos de sus IDs), otra
+ * pasada genera y ordena las claves de cada particion y se mezclan por parejas
+ * hasta tener el ranking, y el texto del ranking se formatea por tramos que
+ * luego se concatenan. La compresion de los bodies grandes tambien va por
+ * bloques en el mismo pool (ver Compresion). El resultado es identico al
+ * secuencial.
+ *
+ *   -Dquiz.cierre.umbral=16384   jugadores a partir de los cuales se reparte
+ *   -Dquiz.cierre.hilos=0        hilos del pool (0 = el ForkJoinPool comun)
+ *
+ * Una sala no pasa de -Dquiz.sala.capacidad jugadores (1024 por defecto), asi
+ * que con la configuracion por defecto el reparto nunca entra: es para
+ * servidores de salas enormes, que deben subir la capacidad por encima del
+ * umbral (ver start.sh). El umbral por defecto es una estimacion: ajustarlo
+ * midiendo con BenchCierreRonda en la maquina de destino.
+ */
+public class CierreRonda {
+    public static final int UMBRAL = Integer.getInteger("quiz.cierre.umbral", 16_384);
+    private static final int HILOS = Integer.getInteger("quiz.cierre.hilos", 0);
+    // IDs por tarea: suficientes para que repartir cueste menos que el trabajo
+    private static final int PARTICION = 4096;
+
+    // El de todas las salas del servidor
+    public static final CierreRonda COMPARTIDO =
+            new CierreRonda(HILOS > 0 ? new ForkJoinPool(HILOS) : ForkJoinPool.commonPool(), UMBRAL);
+
+    // Resultado de puntuar la ronda. Fallos y sin responder solo de los conectados
+    public static final class Recuento {
+        public final int aciertos;
+        public final int fallos;
+        public final int sinResponder;
+
+        Recuento(int aciertos, int fallos, int sinResponder) {
+            this.aciertos = aciertos;
+            this.fallos = fallos;
+            this.sinResponder = sinResponder;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int umbral;
+
+    public CierreRonda(ForkJoinPool pool, int umbral) {
+        this.pool = pool;
+        this.umbral = umbral;
+    }
+
+    // Deja en puntosRonda los puntos de la ronda cerrada y los suma a cada jugador conectado
+    public Recuento puntuar(TablaRespuestas tabla, RegistroJugadores registro, char correcta, int[] puntosRonda) {
+        int limite = registro.getLimite();
+        if (limite < umbral) return puntuar(tabla, registro, correcta, puntosRonda, 0, limite);
+
+        Recuento[] parciales = new Recuento[particiones(limite)];
+        repartir(parciales.length, p -> parciales[p] = puntuar(tabla, registro, correcta, puntosRonda,
+                p * PARTICION, Math.min(limite, (p + 1) * PARTICION)));
+        int aciertos = 0, fallos = 0, sinResponder = 0;
+        for (Recuento r : parciales) {
+            aciertos += r.aciertos;
+            fallos += r.fallos;
+            sinResponder += r.sinResponder;
+        }
+        return new Recuento(aciertos, fallos, sinResponder);
+    }
+
+    // IDs ocupados de mas a menos puntos (como RegistroJugadores.ordenarPorPuntos)
+    public int[] ordenar(RegistroJugadores registro) {
+        int limite = registro.getLimite();
+        if (limite == 0 || limite < umbral) return registro.ordenarPorPuntos();
+        long[] claves = pool.invoke(new Orden(registro, 0, particiones(limite), limite));
+        return RegistroJugadores.ordenDesdeClaves(claves, claves.length);
+    }
+
+    // "1.nombre(Npts),2.nombre(Npts),..."
+    public String formatearRanking(RegistroJugadores registro, int[] orden) {
+        if (orden.length < umbral) return formatear(registro, orden, 0, orden.length);
+        String[] tramos = new String[particiones(orden.length)];
+        repartir(tramos.length, t -> tramos[t] = formatear(registro, orden,
+                t * PARTICION, Math.min(orden.length, (t + 1) * PARTICION)));
+        return String.join(",", tramos);
+    }
+
+    // Mensaje para el broadcast de una sala con ese limite de IDs. En salas
+    // grandes, si alguien lo pide comprimido, se comprime por bloques en el pool
+    public MensajeCodificado codificar(String tipo, String body, int limite) {
+        return new MensajeCodificado(tipo, body, limite < umbral ? null : pool);
+    }
+
+    private static Recuento puntuar(TablaRespuestas tabla, RegistroJugadores registro, char correcta,
+                                    int[] puntosRonda, int desde, int hasta) {
+        int aciertos = tabla.puntuar(correcta, puntosRonda, desde, hasta);
+        int fallos = 0, sinResponder = 0;
+        for (int id = desde; id < hasta; id++) {
+            if (!registro.conectado(id)) continue;
+            int puntos = puntosRonda[id];
+            if (puntos > 0) {
+                registro.sumarPuntos(id, puntos);
+            } else if (tabla.haRespondido(id)) {
+                fallos++;
+            } else {
+                sinResponder++;
+            }
+        }
+        return new Recuento(aciertos, fallos, sinResponder);
+    }
+
+    private static String formatear(RegistroJugadores registro, int[] orden, int desde, int hasta) {
+        StringBuilder sb = new StringBuilder((hasta - desde) * 24);
+        for (int i = desde; i < hasta; i++) {
+            if (i > desde) sb.append(",");
+            sb.append((i + 1)).append(".")
+              .append(registro.nombre(orden[i]))
+              .append("(").append(registro.puntos(orden[i])).append("pts)");
+        }
+        return sb.toString();
+    }
+
+    private static int particiones(int n) {
+        return (n + PARTICION - 1) / PARTICION;
+    }
+
+    // tarea.accept(p) para cada particion p en [0, n), en paralelo en el pool
+    private void repartir(int n, IntConsumer tarea) {
+        if (n > 0) pool.invoke(new Reparto(tarea, 0, n));
+    }
+
+    @SuppressWarnings("serial") // las tareas del pool nunca se serializan
+    private static class Reparto extends RecursiveAction {
+        private final IntConsumer tarea;
+        private final int desde;
+        private final int hasta;
+
+        Reparto(IntConsumer tarea, int desde, int hasta) {
+            this.tarea = tarea;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde == 1) {
+                tarea.accept(desde);
+                return;
+            }
+            int mitad = (desde + hasta) >>> 1;
+            invokeAll(new Reparto(tarea, desde, mitad), new Reparto(tarea, mitad, hasta));
+        }
+    }
+
+    // Claves de orden de las particiones [desde, hasta), ordenadas: cada hoja
+    // ordena las suyas y los nodos mezclan las de sus dos mitades
+    @SuppressWarnings("serial")
+    private static class Orden extends RecursiveTask<long[]> {
+        private final RegistroJugadores registro;
+        private final int desde;
+        private final int hasta;
+        private final int limite;
+
+        Orden(RegistroJugadores registro, int desde, int hasta, int limite) {
+            this.registro = registro;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.limite = limite;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (hasta - desde == 1) {
+                int inicio = desde * PARTICION;
+                long[] claves = new long[Math.min(limite, inicio + PARTICION) - inicio];
+                int n = registro.clavesOrden(inicio, inicio + claves.length, claves, 0);
+                Arrays.sort(claves, 0, n);
+                return n == claves.length ? claves : Arrays.copyOf(claves, n);
+            }
+            int mitad = (desde + hasta) >>> 1;
+            Orden izquierda = new Orden(registro, desde, mitad, limite);
+            izquierda.fork();
+            long[] derecha = new Orden(registro, mitad, hasta, limite).compute();
+            return mezclar(izquierda.join(), derecha);
+        }
+
+        private static long[] mezclar(long[] a, long[] b) {
+            long[] mezcla = new long[a.length + b.length];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length && j < b.length) mezcla[k++] = a[i] <= b[j] ? a[i++] : b[j++];
+            while (i < a.length) mezcla[k++] = a[i++];
+            while (j < b.length) mezcla[k++] = b[j++];
+            return mezcla;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.hlanz.quiz.servidor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Mejores resultados del dia entre todas las salas (top-K acotado, por partida).
+ *
+ * Cada sala publica sus puntuaciones finales al terminar. Solo se guardan las
+ * K mejores, ordenadas en un TreeSet: anadir cuesta O(log K) y consultar O(K),
+ * sin recorrer a nadie que ya haya quedado fuera.
+ *
+ * Cada entrada es un resultado, un jugador en una partida (sala, final de la
+ * partida e ID en su registro), no un jugador: no hay identidad que dure mas
+ * que una partida (el nombre lo elige cada uno y el token es de esa sesion),
+ * asi que quien juega varias partidas puede ocupar varios puestos y dos con el
+ * mismo nombre no se pisan. Dos clasificaciones se fusionan anadiendo las
+ * entradas de una a la otra (una entrada que ya estaba no se repite). Al
+ * cambiar de dia se vacia.
+ */
+public class ClasificacionGlobal {
+
+    public static class Entrada {
+        final String nombre;
+        final int puntos;
+        final String sala;
+        final String clave; // "finPartida#id#sala": un jugador en una partida
+
+        Entrada(String nombre, int puntos, String sala, String clave) {
+            this.nombre = nombre;
+            this.puntos = puntos;
+            this.sala = sala;
+            this.clave = clave;
+        }
+
+        public String getNombre() { return nombre; }
+        public int getPuntos() { return puntos; }
+        public String getSala() { return sala; }
+    }
+
+    // Mas puntos primero; a igualdad, por nombre y por clave para que el orden sea total
+    private static final Comparator<Entrada> ORDEN = Comparator
+            .comparingInt((Entrada e) -> -e.puntos)
+            .thenComparing(e -> e.nombre)
+            .thenComparing(e -> e.clave);
+
+    private final int k;
+    private final TreeSet<Entrada> mejores = new TreeSet<>(ORDEN);
+    private final Map<String, Entrada> porClave = new HashMap<>();
+    private LocalDate dia = LocalDate.now();
+
+    public ClasificacionGlobal(int k) {
+        this.k = k;
+    }
+
+    // Puntuaciones finales de una sala
+    public synchronized void publicar(String sala, RegistroJugadores registro) {
+        comprobarDia();
+        String partida = System.currentTimeMillis() + "#";
+        for (int id = 0, limite = registro.getLimite(); id < limite; id++) {
+            if (registro.estado(id) == RegistroJugadores.LIBRE) continue;
+            anadir(new Entrada(registro.nombre(id), registro.puntos(id), sala, partida + id + "#" + sala));
+        }
+    }
+
+    // Incorporar las entradas de otra clasificacion del mismo dia. La copia de la
+    // otra se toma con su monitor y se suelta antes de coger el propio: con los dos
+    // a la vez, dos fusiones cruzadas (a con b y b con a) se bloquearian
+    public void fusionar(ClasificacionGlobal otra) {
+        List<Entrada> entradas = otra.consultar();
+        synchronized (this) {
+            comprobarDia();
+            for (Entrada entrada : entradas) {
+                anadir(entrada);
+            }
+        }
+    }
+
+    // Las K mejores de hoy, de mayor a menor
+    public synchronized List<Entrada> consultar() {
+        comprobarDia();
+        return new ArrayList<>(mejores);
+    }
+
+    private void anadir(Entrada nueva) {
+        Entrada anterior = porClave.get(nueva.clave);
+        if (anterior != null) {
+            if (anterior.puntos >= nueva.puntos) return;
+            mejores.remove(anterior);
+            porClave.remove(anterior.clave);
+        } else if (mejores.size() >= k && ORDEN.compare(nueva, mejores.last()) >= 0) {
+            return; // no entra en el top
+        }
+        mejores.add(nueva);
+        porClave.put(nueva.clave, nueva);
+        if (mejores.size() > k) {
+            porClave.remove(mejores.pollLast().clave);
+        }
+    }
+
+    private void comprobarDia() {
+        LocalDate hoy = LocalDate.now();
+        if (!hoy.equals(dia)) {
+            dia = hoy;
+            mejores.clear();
+            porClave.clear();
+        }
+    }
+
+    // ============= INSTANTANEA EN DISCO =============
+    // Formato: primera linea la fecha (ISO), despues "puntos<TAB>nombre<TAB>sala<TAB>clave"
+
+    // Se escribe en un temporal y se renombra, asi nunca queda un fichero a medias
+    public void guardar(Path archivo) throws IOException {
+        List<Entrada> entradas;
+        LocalDate fecha;
+        synchronized (this) {
+            comprobarDia();
+            entradas = new ArrayList<>(mejores);
+            fecha = dia;
+        }
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temporal, StandardCharsets.UTF_8)) {
+            out.write(fecha.toString());
+            out.newLine();
+            for (Entrada e : entradas) {
+                out.write(e.puntos + "\t" + limpiar(e.nombre) + "\t" + limpiar(e.sala) + "\t" + limpiar(e.clave));
+                out.newLine();
+            }
+        }
+        Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Recupera la instantanea si es de hoy (las de dias anteriores se ignoran)
+    public synchronized void cargar(Path archivo) throws IOException {
+        if (!Files.exists(archivo)) return;
+        List<String> lineas = Files.readAllLines(archivo, StandardCharsets.UTF_8);
+        if (lineas.isEmpty() || !lineas.get(0).trim().equals(LocalDate.now().toString())) return;
+        comprobarDia();
+        for (int i = 1; i < lineas.size(); i++) {
+            String[] partes = lineas.get(i).split("\t", 4);
+            if (partes.length < 3) continue;
+            // Las instantaneas sin clave (formato anterior): cada linea es una entrada distinta
+            String clave = partes.length == 4 ? partes[3] : "archivo#" + i + "#" + partes[2];
+            try {
+                anadir(new Entrada(partes[1], Integer.parseInt(partes[0]), partes[2], clave));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+    }
+
+    private static String limpiar(String texto) {
+        return texto.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    public int getK() { return k; }
+}
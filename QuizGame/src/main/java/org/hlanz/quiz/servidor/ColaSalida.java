@@ -0,0 +1,132 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.log.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cola de salida de la conexion de un jugador.
+ *
+ * Los broadcasts salen con el monitor de la sala cogido y desde los hilos del
+ * planificador, asi que ahi no se puede escribir en el socket: un cliente que
+ * no lee pararia su sala, y unos pocos todas. encolar() solo deja el mensaje y
+ * un hilo escritor lo escribe despues. Cada cola tiene como mucho una tarea de
+ * escritura en marcha, asi que los mensajes llegan en orden, y se hace flush
+ * solo cuando la cola se vacia.
+ *
+ * Si la cola llega a MAX_PENDIENTES mensajes el cliente no esta leyendo: se
+ * cierra su socket y su hilo lector lo trata como cualquier otra caida (puede
+ * reanudar la sesion). Un espectador no tiene hilo lector: su conexion la
+ * cierra la propia cola al desbordarse, al fallar una escritura o al terminar.
+ *
+ *   -Dquiz.salida.max=256   mensajes pendientes por conexion
+ */
+public class ColaSalida implements Runnable {
+    public static final int MAX_PENDIENTES = Integer.getInteger("quiz.salida.max", 256);
+
+    // Hilos que escriben en los sockets (y los cierran); un cliente lento solo bloquea el suyo
+    private static final ExecutorService ESCRITORES = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "escritor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final LongAdder desbordadas = new LongAdder();
+
+    private final Socket socket;
+    private final OutputStream salida;
+    private final ArrayDeque<byte[]> pendientes = new ArrayDeque<>();
+    private boolean escribiendo = false; // hay una tarea en ESCRITORES para esta cola
+    private boolean cerrada = false;
+    private boolean cerrarAlVaciar = false; // terminar(): cerrar el socket tras lo pendiente
+
+    public ColaSalida(Socket socket, OutputStream salida) {
+        this.socket = socket;
+        this.salida = salida;
+    }
+
+    // Nunca bloquea. Devuelve false si el mensaje se descarta (cola cerrada o llena)
+    public boolean encolar(byte[] mensaje) {
+        synchronized (this) {
+            if (cerrada) return false;
+            if (pendientes.size() < MAX_PENDIENTES) {
+                pendientes.add(mensaje);
+                if (!escribiendo) {
+                    escribiendo = true;
+                    ESCRITORES.execute(this);
+                }
+                return true;
+            }
+            cerrada = true;
+            pendientes.clear();
+        }
+        desbordadas.increment();
+        Log.warn("[!] Cola de salida llena: se cierra la conexion de " + socket.getRemoteSocketAddress());
+        // Cerrar un socket SSL escribe el close_notify: tampoco en el hilo que encola
+        ESCRITORES.execute(this::cerrarSocket);
+        return false;
+    }
+
+    // Descartar lo pendiente y no aceptar mas (la conexion se sustituyo o se cerro)
+    public synchronized void cerrar() {
+        cerrada = true;
+        pendientes.clear();
+    }
+
+    // No aceptar mas, escribir lo pendiente y cerrar el socket
+    public synchronized void terminar() {
+        if (cerrada) return;
+        cerrada = true;
+        cerrarAlVaciar = true;
+        if (!escribiendo) ESCRITORES.execute(this::cerrarSocket);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            byte[] mensaje;
+            boolean ultimo;
+            boolean cerrarYa = false;
+            synchronized (this) {
+                mensaje = pendientes.poll();
+                if (mensaje == null) {
+                    escribiendo = false;
+                    cerrarYa = cerrarAlVaciar;
+                }
+                ultimo = pendientes.isEmpty();
+            }
+            if (mensaje == null) {
+                if (cerrarYa) cerrarSocket(); // fuera del monitor: en SSL escribe el close_notify
+                return;
+            }
+            try {
+                salida.write(mensaje);
+                if (ultimo) salida.flush();
+            } catch (IOException e) {
+                // Lo pendiente ya no va a llegar. Al cerrar el socket el hilo lector
+                // (si lo hay) ve la caida
+                synchronized (this) {
+                    cerrar();
+                    escribiendo = false;
+                }
+                cerrarSocket();
+                return;
+            }
+        }
+    }
+
+    private void cerrarSocket() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public static long getDesbordadas() { return desbordadas.sum(); }
+}
@@ -0,0 +1,175 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.modelo.BancoPreguntas;
+import org.hlanz.quiz.modelo.Pregunta;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Salas activas de un servidor y el planificador que las mueve.
+ * Los jugadores eligen sala con la cabecera X-Room en POST /join; si no la
+ * indican van a la sala por defecto. Una sala terminada se retira y el
+ * siguiente jugador que pida ese nombre abre una partida nueva.
+ *
+ * Preguntas de cada sala nueva (propiedades del sistema):
+ *   -Dquiz.preguntas.num=K          K preguntas al azar del banco (por defecto todas, en orden)
+ *   -Dquiz.preguntas.categoria=...  solo de esa categoria
+ *   -Dquiz.preguntas.dificultad=... solo de esa dificultad
+ *
+ * El banco puede cambiarse en caliente (cambiarBanco, p. ej. desde VigilantePreguntas):
+ * las salas ya creadas conservan sus preguntas y las nuevas usan el banco nuevo.
+ *
+ * Al terminar, cada sala publica sus puntuaciones en la clasificacion global del dia
+ * (un puesto por jugador y partida), que se guarda en disco tras cada partida:
+ *   -Dquiz.clasificacion.k=100                    tamano del top
+ *   -Dquiz.clasificacion.archivo=clasificacion.tsv instantanea (se recupera al arrancar)
+ */
+public class GestorSalas {
+    public static final String SALA_POR_DEFECTO = "principal";
+
+    private static final int NUM_PREGUNTAS = Integer.getInteger("quiz.preguntas.num", 0);
+    private static final String CATEGORIA = System.getProperty("quiz.preguntas.categoria");
+    private static final String DIFICULTAD = System.getProperty("quiz.preguntas.dificultad");
+    private static final int TOP_K = Integer.getInteger("quiz.clasificacion.k", 100);
+    private static final Path ARCHIVO_CLASIFICACION =
+            Paths.get(System.getProperty("quiz.clasificacion.archivo", "clasificacion.tsv"));
+
+    // Banco actual y, solo si alguna sala usa el banco entero, todas sus preguntas
+    // ya parseadas (se parsean la primera vez y se comparten). Se sustituye
+    // entera cuando cambia el banco.
+    private static class Instantanea {
+        final BancoPreguntas banco;
+        private List<Pregunta> todas;
+
+        Instantanea(BancoPreguntas banco) {
+            this.banco = banco;
+        }
+
+        synchronized List<Pregunta> todas() throws IOException {
+            if (todas == null) todas = List.copyOf(banco.todas());
+            return todas;
+        }
+    }
+
+    private final AtomicReference<Instantanea> actual = new AtomicReference<>();
+    private final Map<String, Sala> salas = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor planificador;
+    private final Reloj reloj;
+    private final ClasificacionGlobal clasificacion = new ClasificacionGlobal(TOP_K);
+    private volatile CanalMulticast multicast; // solo lo usan las salas creadas despues
+
+    public GestorSalas(BancoPreguntas banco) throws IOException {
+        instalarBanco(banco);
+        int hilos = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        planificador = new ScheduledThreadPoolExecutor(hilos, r -> {
+            Thread t = new Thread(r, "planificador-salas");
+            t.setDaemon(true);
+            return t;
+        });
+        planificador.setRemoveOnCancelPolicy(true); // los plazos cancelados no se acumulan
+        reloj = new RelojSistema(planificador);
+
+        try {
+            clasificacion.cargar(ARCHIVO_CLASIFICACION);
+        } catch (IOException e) {
+            Log.warn("[WARN] No se pudo leer la clasificacion de " + ARCHIVO_CLASIFICACION + ": " + e.getMessage());
+        }
+    }
+
+    // Sala abierta con ese nombre, o null si no hay ninguna (no la crea: p. ej. para espectadores)
+    public Sala buscarSala(String nombre) {
+        Sala sala = salas.get(clave(nombre));
+        return sala != null && sala.getFase() != Sala.Fase.END ? sala : null;
+    }
+
+    // Sala abierta con ese nombre (la crea si no existe o si la anterior ya termino).
+    // Las preguntas de una sala nueva se eligen antes, fuera del compute: pueden
+    // leer disco y no deben bloquear el resto del mapa. Si dos hilos abren la
+    // misma sala a la vez uno de los dos descarta su seleccion.
+    public Sala obtenerSala(String nombre) throws IOException {
+        String clave = clave(nombre);
+        Sala abierta = buscarSala(clave);
+        if (abierta != null) return abierta;
+        List<Pregunta> preguntas = seleccionarPreguntas();
+        return salas.compute(clave, (k, actual) ->
+                actual != null && actual.getFase() != Sala.Fase.END
+                        ? actual
+                        : new Sala(k, preguntas, reloj, sala -> salaTerminada(k, sala), multicast));
+    }
+
+    private static String clave(String nombre) {
+        return (nombre == null || nombre.isBlank()) ? SALA_POR_DEFECTO : nombre.trim();
+    }
+
+    // Broadcasts de las salas nuevas tambien por multicast (ver CanalMulticast)
+    public void usarMulticast(CanalMulticast multicast) {
+        this.multicast = multicast;
+    }
+
+    private void salaTerminada(String clave, Sala sala) {
+        salas.remove(clave, sala);
+        if (sala.getNumJugadores() == 0) return;
+        clasificacion.publicar(sala.getNombre(), sala.getRegistro());
+        // La escritura a disco fuera del monitor de la sala
+        planificador.execute(this::guardarClasificacion);
+    }
+
+    private void guardarClasificacion() {
+        try {
+            clasificacion.guardar(ARCHIVO_CLASIFICACION);
+        } catch (IOException e) {
+            Log.warn("[WARN] No se pudo guardar la clasificacion en " + ARCHIVO_CLASIFICACION + ": " + e.getMessage());
+        }
+    }
+
+    // Sustituir el banco para las salas que se creen a partir de ahora. Si las
+    // salas usan el banco entero se parsea ya, en el hilo que llama; con muestreo
+    // nunca se parsea entero.
+    public void cambiarBanco(BancoPreguntas banco) throws IOException {
+        instalarBanco(banco);
+    }
+
+    // Tambien desde el constructor: privado para que una subclase no lo vea a medio construir
+    private void instalarBanco(BancoPreguntas banco) throws IOException {
+        Instantanea instantanea = new Instantanea(banco);
+        if (!muestreo()) instantanea.todas();
+        actual.set(instantanea);
+    }
+
+    private static boolean muestreo() {
+        return NUM_PREGUNTAS > 0 || CATEGORIA != null || DIFICULTAD != null;
+    }
+
+    // Preguntas para una partida nueva segun la configuracion
+    private List<Pregunta> seleccionarPreguntas() throws IOException {
+        Instantanea instantanea = actual.get();
+        BancoPreguntas banco = instantanea.banco;
+        if (muestreo()) {
+            int k = NUM_PREGUNTAS > 0 ? NUM_PREGUNTAS : banco.getNumPreguntas();
+            List<Pregunta> muestra = banco.muestrear(CATEGORIA, DIFICULTAD, k, ThreadLocalRandom.current());
+            if (!muestra.isEmpty()) return muestra;
+            Log.warn("[WARN] Ninguna pregunta de categoria=" + CATEGORIA + " dificultad=" + DIFICULTAD + ", usando todas");
+        }
+        return instantanea.todas();
+    }
+
+    public int getNumSalas() { return salas.size(); }
+    public Collection<Sala> getSalas() { return Collections.unmodifiableCollection(salas.values()); }
+
+    public int getNumJugadores() {
+        int total = 0;
+        for (Sala sala : salas.values()) total += sala.getNumJugadores();
+        return total;
+    }
+    public BancoPreguntas getBanco() { return actual.get().banco; }
+    public ClasificacionGlobal getClasificacion() { return clasificacion; }
+}
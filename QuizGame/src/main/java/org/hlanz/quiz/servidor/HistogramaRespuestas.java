@@ -0,0 +1,46 @@
+package org.hlanz.quiz.servidor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reparto de respuestas A/B/C/D de la ronda actual.
+ *
+ * Se cuenta en el momento de aceptar cada respuesta con un LongAdder por
+ * opcion: cada hilo lector suma en su propia celda, asi que la contencion no
+ * crece con el numero de jugadores y nadie tiene que recorrer la sala para
+ * saber cuantos han elegido cada opcion.
+ */
+public class HistogramaRespuestas {
+    private final LongAdder[] porOpcion = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+
+    // Solo al abrir la ronda, antes de aceptar respuestas
+    public void reiniciar() {
+        for (LongAdder contador : porOpcion) contador.reset();
+    }
+
+    public void contar(char respuesta) {
+        int opcion = respuesta - 'A';
+        if (opcion >= 0 && opcion < porOpcion.length) porOpcion[opcion].increment();
+    }
+
+    public long[] instantanea() {
+        long[] valores = new long[porOpcion.length];
+        for (int i = 0; i < valores.length; i++) valores[i] = porOpcion[i].sum();
+        return valores;
+    }
+
+    // Body del mensaje STATS: "A:12,B:3,C:0,D:5,respondidas:20/40" y, al cerrar
+    // la pregunta, ",correctas:5"
+    public static String formatear(long[] valores, int conectados, char correcta) {
+        StringBuilder sb = new StringBuilder();
+        long total = 0;
+        for (int i = 0; i < valores.length; i++) {
+            sb.append((char) ('A' + i)).append(':').append(valores[i]).append(',');
+            total += valores[i];
+        }
+        sb.append("respondidas:").append(total).append('/').append(conectados);
+        int opcion = correcta - 'A';
+        if (opcion >= 0 && opcion < valores.length) sb.append(",correctas:").append(valores[opcion]);
+        return sb.toString();
+    }
+}
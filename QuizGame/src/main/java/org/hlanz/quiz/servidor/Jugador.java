@@ -0,0 +1,34 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.protocolo.MensajeCodificado;
+
+/**
+ * Lo que una sala necesita de un jugador, sea una conexion real
+ * (ManejadorClienteQuiz) o un jugador simulado en memoria.
+ */
+public interface Jugador {
+    String getNombreUsuario();
+
+    // ID en el registro de la sala, que indexa tambien la tabla de respuestas (-1 si no tiene).
+    // Puntos y estado de conexion los guarda la sala en RegistroJugadores
+    int getSlot();
+
+    void setSlot(int slot);
+
+    // RTT suavizado de la conexion en ms (0 si aun no se ha medido)
+    int getRttMs();
+
+    // Mensaje ya codificado; todos los destinatarios comparten los mismos arrays
+    // (el comprimido si negociaron deflate, si no el plano)
+    void enviar(MensajeCodificado mensaje);
+
+    // Recibe los broadcasts por el multicast de la sala en vez de por enviar()
+    default boolean porMulticast() {
+        return false;
+    }
+
+    // Recibe la siguiente pregunta cifrada en la pausa (PRELOAD) y la clave al abrir la ronda (REVEAL)
+    default boolean aceptaPrecarga() {
+        return false;
+    }
+}
@@ -0,0 +1,35 @@
+package org.hlanz.quiz.servidor;
+
+/**
+ * Medida de RTT por conexion y compensacion de latencia al puntuar.
+ *
+ * Cada sala envia PING con su marca de tiempo cada INTERVALO_PING_MS y el
+ * cliente la devuelve en POST /pong. Con cada muestra se actualiza una media
+ * movil exponencial (1/8, como el SRTT de TCP). Si se activa la compensacion,
+ * al registrar una respuesta se descuenta la mitad del RTT (el viaje de la
+ * pregunta hasta el jugador), con un tope para que nadie gane tiempo
+ * retrasando a proposito sus pongs:
+ *   -Dquiz.rtt.intervalo=5000          ms entre PINGs
+ *   -Dquiz.rtt.compensar=true          descontar RTT/2 del tiempo de respuesta
+ *   -Dquiz.rtt.max.compensacion=150    ms maximos descontados
+ */
+public final class Latencia {
+    public static final long INTERVALO_PING_MS = Long.getLong("quiz.rtt.intervalo", 5000L);
+    public static final boolean COMPENSAR = Boolean.getBoolean("quiz.rtt.compensar");
+    public static final long MAX_COMPENSACION_MS = Long.getLong("quiz.rtt.max.compensacion", 150L);
+    private static final long MAX_MUESTRA_MS = 10_000; // muestras absurdas no cuentan mas que esto
+
+    private Latencia() {}
+
+    // Nueva media tras una muestra (0 = aun sin medidas)
+    public static int suavizar(int rttAnterior, long muestraMs) {
+        int muestra = (int) Math.min(MAX_MUESTRA_MS, Math.max(0, muestraMs));
+        if (rttAnterior == 0) return Math.max(1, muestra);
+        return Math.max(1, (7 * rttAnterior + muestra) / 8);
+    }
+
+    // Milisegundos a descontar del tiempo de respuesta de un jugador con ese RTT
+    public static long compensacion(int rttMs) {
+        return COMPENSAR ? Math.min(rttMs / 2, MAX_COMPENSACION_MS) : 0;
+    }
+}
@@ -0,0 +1,92 @@
+package org.hlanz.quiz.servidor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limite de peticiones por conexion (token bucket).
+ *
+ * El estado de cada conexion son dos longs: el credito acumulado (en
+ * nanosegundos, hasta RAFAGA peticiones) y el instante de la ultima recarga.
+ * Solo lo usa el hilo lector de la conexion, asi que no hay sincronizacion.
+ * La tasa, la rafaga y la politica al superarlo son globales:
+ *   -Dquiz.limite.tasa=10          peticiones por segundo
+ *   -Dquiz.limite.rafaga=20        peticiones seguidas permitidas
+ *   -Dquiz.limite.politica=DESCARTAR | RALENTIZAR | DESCONECTAR
+ *
+ * Los POST /replay de los jugadores por multicast tienen su propio credito
+ * (paraReenvios): tras perder una rafaga de datagramas piden varios seguidos y
+ * no deben gastar el del resto de peticiones ni acabar expulsados. Lo que supera
+ * ese credito se descarta sin mas; el cliente vuelve a pedirlo.
+ *   -Dquiz.limite.replay.tasa=20
+ *   -Dquiz.limite.replay.rafaga=64   (lo que cabe en el historial de la sala)
+ */
+public class LimitadorPeticiones {
+    public enum Politica { DESCARTAR, RALENTIZAR, DESCONECTAR }
+
+    public static final double TASA = Double.parseDouble(System.getProperty("quiz.limite.tasa", "10"));
+    public static final int RAFAGA = Integer.getInteger("quiz.limite.rafaga", 20);
+    public static final Politica POLITICA =
+            Politica.valueOf(System.getProperty("quiz.limite.politica", "DESCARTAR").toUpperCase());
+
+    private static final double TASA_REENVIOS = Double.parseDouble(System.getProperty("quiz.limite.replay.tasa", "20"));
+    private static final int RAFAGA_REENVIOS = Integer.getInteger("quiz.limite.replay.rafaga", 64);
+
+    // Contadores globales
+    private static final LongAdder permitidas = new LongAdder();
+    private static final LongAdder descartadas = new LongAdder();
+    private static final LongAdder ralentizadas = new LongAdder();
+    private static final LongAdder desconexiones = new LongAdder();
+
+    private final long nanosPorPeticion;
+    private final long creditoMaximo;
+    private long credito;
+    private long ultimaRecarga = System.nanoTime();
+
+    public LimitadorPeticiones() {
+        this(TASA, RAFAGA);
+    }
+
+    private LimitadorPeticiones(double tasa, int rafaga) {
+        nanosPorPeticion = (long) (1_000_000_000L / tasa);
+        creditoMaximo = nanosPorPeticion * rafaga;
+        credito = creditoMaximo;
+    }
+
+    // Credito aparte para los POST /replay de una conexion
+    public static LimitadorPeticiones paraReenvios() {
+        return new LimitadorPeticiones(TASA_REENVIOS, RAFAGA_REENVIOS);
+    }
+
+    // 0 si la peticion puede pasar ya (y la consume); si no, nanos hasta que pueda
+    public long intentar() {
+        long ahora = System.nanoTime();
+        credito = Math.min(creditoMaximo, credito + (ahora - ultimaRecarga));
+        ultimaRecarga = ahora;
+        if (credito >= nanosPorPeticion) {
+            credito -= nanosPorPeticion;
+            permitidas.increment();
+            return 0;
+        }
+        return nanosPorPeticion - credito;
+    }
+
+    // Devolver el credito de una peticion que ya paso (era de otro limitador)
+    public void devolver() {
+        credito = Math.min(creditoMaximo, credito + nanosPorPeticion);
+        permitidas.decrement();
+    }
+
+    static void contarDescartada() { descartadas.increment(); }
+    static void contarRalentizada() { ralentizadas.increment(); }
+    static void contarDesconexion() { desconexiones.increment(); }
+
+    public static long getPermitidas() { return permitidas.sum(); }
+    public static long getDescartadas() { return descartadas.sum(); }
+    public static long getRalentizadas() { return ralentizadas.sum(); }
+    public static long getDesconexiones() { return desconexiones.sum(); }
+
+    public static String resumen() {
+        return "permitidas=" + getPermitidas() + " descartadas=" + getDescartadas()
+                + " ralentizadas=" + getRalentizadas() + " desconexiones=" + getDesconexiones();
+    }
+}
@@ -1,128 +1,458 @@
 package org.hlanz.quiz.servidor;
 
+import org.hlanz.quiz.eventos.EventoPeticion;
+import org.hlanz.quiz.eventos.EventoUnion;
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.protocolo.Compresion;
+import org.hlanz.quiz.protocolo.EntradaWebSocket;
 import org.hlanz.quiz.protocolo.HttpUtil;
+import org.hlanz.quiz.protocolo.LectorMensajes;
+import org.hlanz.quiz.protocolo.MensajeCodificado;
+import org.hlanz.quiz.protocolo.Precarga;
+import org.hlanz.quiz.protocolo.SalidaWebSocket;
+import org.hlanz.quiz.protocolo.WebSocket;
 
 import java.io.*;
 import java.net.Socket;
 import java.util.Map;
-import java.util.function.Consumer;
 
-public class ManejadorClienteQuiz implements Runnable {
-    private Socket socket;
-    private PrintWriter salida;
-    private BufferedReader entrada;
+public class ManejadorClienteQuiz implements Runnable, Jugador {
+    // Las peticiones del cliente son cortas (nombre, respuesta, token)
+    private static final int MAX_CUERPO = 64 * 1024;
+
+    private volatile Socket socket;
+    // Conexion del puerto WebSocket: los mismos mensajes, dentro de tramas
+    private final boolean webSocket;
+    private OutputStream salida;
+    private LectorMensajes entrada;
+    // Todo lo que se envia una vez admitido pasa por aqui (nunca se escribe en el
+    // socket desde la sala); antes se responde directamente desde este hilo
+    private volatile ColaSalida cola;
+    // El cliente pidio deflate (Accept-Encoding) al unirse o al reanudar
+    private volatile boolean deflate;
+    // Recibe los broadcasts por el multicast de la sala (X-Multicast: 1 en /join)
+    private volatile boolean porMulticast;
+    // Quiere la siguiente pregunta cifrada durante la pausa (X-Preload: 1 en /join o /resume)
+    private volatile boolean precarga;
     private String nombreUsuario;
-    private int puntuacionTotal = 0;
 
-    // Control de respuesta por ronda
-    private volatile boolean haRespondido = false;
-    private char respuesta;
-    private long tiempoRespuesta; // ms que tardo en responder
+    // Reanudacion de sesion: token emitido en /join
+    private String tokenSesion;
 
-    // Callbacks para registrar/remover jugador (funciona con ServidorQuiz y ServidorQuizSSL)
-    private Consumer<ManejadorClienteQuiz> onRegistrar;
-    private Consumer<ManejadorClienteQuiz> onRemover;
+    // Salas del servidor (funciona con ServidorQuiz y ServidorQuizSSL) y sala del jugador
+    private final GestorSalas gestorSalas;
+    private Sala sala;
 
-    public ManejadorClienteQuiz(Socket socket) {
-        this.socket = socket;
-        // Por defecto usa ServidorQuiz
-        this.onRegistrar = ServidorQuiz::registrarJugador;
-        this.onRemover = ServidorQuiz::removerJugador;
+    // Respuestas por ronda: viven en la tabla de la sala, en este slot
+    private volatile int slot = -1; // -1 = sin slot (no registrado o ya eliminado)
+
+    // Latencia: RTT suavizado y ultimo PING ya contestado (solo cuenta un pong por PING)
+    private volatile int rttMs = 0;
+    private long ultimoPong = -1;
+
+    public ManejadorClienteQuiz(Socket socket, GestorSalas gestorSalas) {
+        this(socket, gestorSalas, false);
     }
 
-    public ManejadorClienteQuiz(Socket socket, Consumer<ManejadorClienteQuiz> onRegistrar, Consumer<ManejadorClienteQuiz> onRemover) {
+    public ManejadorClienteQuiz(Socket socket, GestorSalas gestorSalas, boolean webSocket) {
         this.socket = socket;
-        this.onRegistrar = onRegistrar;
-        this.onRemover = onRemover;
+        this.gestorSalas = gestorSalas;
+        this.webSocket = webSocket;
     }
 
     @Override
     public void run() {
         try {
-            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            salida = new PrintWriter(socket.getOutputStream(), false);
+            entrada = new LectorMensajes(socket.getInputStream(), MAX_CUERPO);
+            salida = socket.getOutputStream();
+            if (webSocket && !abrirWebSocket()) return;
 
             // Enviar bienvenida como respuesta HTTP
-            enviarHttp("WELCOME", "Conectado al Quiz! Envia POST /join con tu nombre");
+            responder("WELCOME", "Conectado al Quiz! Envia POST /join con tu nombre");
 
-            // Esperar peticion POST /join
-            Map<String, String> peticion = HttpUtil.parse(entrada);
+            // Esperar peticion POST /join (o POST /resume para recuperar una sesion)
+            Map<String, String> peticion = entrada.leer();
+            if (peticion != null) {
+                deflate = Compresion.aceptada(peticion);
+                precarga = Precarga.aceptada(peticion);
+            }
+            if (peticion != null && "/resume".equals(peticion.get("path"))) {
+                reanudar(peticion.get("body").trim());
+                return;
+            }
+            if (peticion != null && "/watch".equals(peticion.get("path"))) {
+                // Un espectador no abre salas: sin jugadores nunca arrancaria ni terminaria
+                Sala observada = gestorSalas.buscarSala(peticion.get("X-Room"));
+                if (observada == null) {
+                    responder("ERROR", "La sala no existe");
+                    entrada.liberar();
+                    socket.close();
+                    return;
+                }
+                observar(observada);
+                return;
+            }
+            String nombreSala = null;
+            boolean quiereMulticast = false;
             if (peticion != null && "/join".equals(peticion.get("path"))) {
                 nombreUsuario = peticion.get("body").trim();
+                nombreSala = peticion.get("X-Room");
+                quiereMulticast = "1".equals(peticion.get("X-Multicast"));
             }
 
             if (nombreUsuario == null || nombreUsuario.isEmpty()) {
                 nombreUsuario = "Jugador_" + socket.getPort();
             }
 
-            System.out.println("[+] " + nombreUsuario + " se ha unido desde " + socket.getInetAddress());
-            enviarHttp("WELCOME", nombreUsuario);
-            enviarHttp("WAIT", "Esperando a que empiece la partida...");
+            // Registrar en la sala; si justo acaba de terminar se abre una nueva con ese nombre
+            EventoUnion eventoUnion = new EventoUnion();
+            eventoUnion.begin();
+            boolean admitido;
+            try {
+                sala = gestorSalas.obtenerSala(nombreSala);
+                admitido = sala.registrar(this, this::admitido);
+                if (!admitido) {
+                    sala = gestorSalas.obtenerSala(nombreSala);
+                    admitido = sala.registrar(this, this::admitido);
+                }
+            } catch (IOException e) {
+                // Sala nueva cuyas preguntas no se pudieron leer del banco
+                Log.warn("[WARN] No se pudo abrir una sala para " + nombreUsuario + ": " + e.getMessage());
+                responder("ERROR", "No se pudo abrir la sala");
+                entrada.liberar();
+                socket.close();
+                return;
+            }
+            if (!admitido) {
+                responder("ERROR", "Partida llena");
+                terminarUnion(eventoUnion, false);
+                entrada.liberar();
+                socket.close();
+                return;
+            }
+            terminarUnion(eventoUnion, true);
+            Log.info("[+] " + nombreUsuario + " se ha unido a la sala " + sala.getNombre() + " desde " + socket.getInetAddress());
+            if (quiereMulticast && sala.getMulticast() != null) activarMulticast();
+        } catch (IOException e) {
+            Log.info("[-] Error con " + nombreUsuario + ": " + e.getMessage());
+            if (entrada != null) entrada.liberar();
+            desconectar();
+            return;
+        }
+
+        leerPeticiones(socket, entrada);
+    }
+
+    // Ya tiene slot en la sala: solo ahora se emite el token de sesion. Lo llama la
+    // sala dentro de registrar, asi que estos mensajes van antes que cualquier broadcast
+    private void admitido() {
+        cola = new ColaSalida(socket, salida);
+        tokenSesion = RegistroSesiones.emitir(this);
+        enviarHttp("WELCOME", nombreUsuario);
+        enviarHttp("TOKEN", tokenSesion);
+        enviarHttp("WAIT", "Esperando a que empiece la partida...");
+    }
+
+    // Handshake de upgrade. Despues entrada y salida pasan a leer y escribir tramas
+    // y el resto del manejador no nota la diferencia.
+    private boolean abrirWebSocket() throws IOException {
+        Map<String, String> peticion = entrada.leer();
+        if (peticion == null) {
+            socket.close();
+            return false;
+        }
+        byte[] respuesta = WebSocket.aceptar(peticion);
+        // El cliente no puede enviar nada hasta recibir el 101 (RFC 6455, 4.1)
+        if (respuesta == null || entrada.tieneBuffer()) {
+            salida.write(WebSocket.RECHAZO);
+            salida.flush();
+            entrada.liberar();
+            socket.close();
+            return false;
+        }
+        salida.write(respuesta);
+        salida.flush();
+        SalidaWebSocket tramas = new SalidaWebSocket(salida);
+        salida = tramas;
+        entrada = new LectorMensajes(new EntradaWebSocket(socket.getInputStream(), tramas), MAX_CUERPO);
+        return true;
+    }
+
+    // A partir del siguiente broadcast la sala ya no se lo manda por TCP. El cliente
+    // recibe el grupo y esa secuencia: lo anterior le llego por TCP y los huecos
+    // hasta que se una al grupo los pide con POST /replay
+    private void activarMulticast() {
+        long seq = sala.entreBroadcasts(() -> porMulticast = true);
+        enviarHttp("MULTICAST", sala.getMulticast().getDireccion() + " " + seq + " " + sala.getNombre());
+    }
+
+    // Reenviar por TCP un mensaje del multicast que no le llego (GONE si ya no esta en el historial)
+    private void reenviar(String secuencia) {
+        long seq;
+        try {
+            seq = Long.parseLong(secuencia);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        CanalEspectadores canal = sala.getCanalEspectadores();
+        // Sondeo del cliente por el siguiente numero: si aun no se ha enviado no hay nada que contestar
+        if (seq >= canal.getPublicados()) return;
+        // obtener solo lo devuelve si el hueco del historial guarda esa misma secuencia
+        MensajeCodificado mensaje = canal.obtener(seq);
+        sala.getMulticast().contarReenvio();
+        enviarBytes(mensaje != null
+                ? CanalMulticast.codificar(sala.getNombre(), seq, mensaje)
+                : CanalMulticast.codificarPerdido(sala.getNombre(), seq));
+    }
+
+    // Reanudar la sesion del token sobre este socket nuevo. El estado vive en el
+    // manejador original: se le pasa el socket y este hilo pasa a leer por el.
+    // La cola nueva se instala dentro de conexionReanudada, con el monitor de la
+    // sala, asi que el WELCOME va antes que cualquier broadcast.
+    private void reanudar(String token) throws IOException {
+        ManejadorClienteQuiz original = RegistroSesiones.buscar(token);
+        ColaSalida nuevaCola = new ColaSalida(socket, salida);
+        Socket nuevoSocket = socket;
+        // Puede expirar entre buscar y reconectar: reconectar lo comprueba con su monitor
+        if (original == null || !original.reconectar(socket, entrada, deflate, precarga)
+                || !original.sala.conexionReanudada(original, () -> original.reanudado(nuevoSocket, nuevaCola))) {
+            responder("ERROR", "Token de sesion invalido o caducado");
+            entrada.liberar();
+            socket.close();
+            return;
+        }
+        Log.info("[+] " + original.nombreUsuario + " ha reanudado su sesion desde " + socket.getInetAddress());
+        original.leerPeticiones(socket, entrada);
+    }
 
-            // Registrar en el servidor
-            onRegistrar.accept(this);
+    // Lo llama la sala dentro de conexionReanudada. Si entretanto otra reanudacion
+    // ya sustituyo el socket, esta cola no se instala
+    private void reanudado(Socket nuevoSocket, ColaSalida nuevaCola) {
+        if (socket != nuevoSocket) {
+            nuevaCola.cerrar();
+            return;
+        }
+        cola = nuevaCola;
+        enviarHttp("WELCOME", nombreUsuario);
+        enviarHttp("WAIT", "Sesion reanudada con " + getPuntuacionTotal() + "pts");
+    }
 
-            // Bucle de lectura: recibe peticiones HTTP del cliente
-            Map<String, String> mensaje;
-            while ((mensaje = HttpUtil.parse(entrada)) != null) {
+    // Espectador: no juega ni cuenta para la sala, solo recibe su flujo de mensajes.
+    // Desde aqui todo le llega por su cola, que llena la sala en cada broadcast:
+    // este hilo termina y la conexion no ocupa ninguno mientras mira
+    private void observar(Sala salaObservada) {
+        entrada.liberar();
+        ColaSalida colaEspectador = new ColaSalida(socket, salida);
+        colaEspectador.encolar(HttpUtil.encodeResponse("WELCOME", "Espectador de la sala " + salaObservada.getNombre()));
+        if (!salaObservada.getCanalEspectadores().suscribir(colaEspectador, deflate)) {
+            colaEspectador.encolar(HttpUtil.encodeResponse("ERROR", "La sala ha terminado o no admite mas espectadores"));
+            colaEspectador.terminar();
+            return;
+        }
+        Log.info("[+] Espectador en la sala " + salaObservada.getNombre() + " desde " + socket.getInetAddress());
+    }
+
+    // false si la sesion ya expiro (sin token ni slot): no hay nada que reanudar
+    private synchronized boolean reconectar(Socket nuevoSocket, LectorMensajes nuevaEntrada,
+                                            boolean nuevoDeflate, boolean nuevaPrecarga) {
+        if (tokenSesion == null || slot < 0) return false;
+        // Si el servidor aun no habia detectado la caida, cerrar el socket viejo
+        // (su hilo lector terminara y vera que ya no es el socket actual)
+        if (socket != nuevoSocket) {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+        socket = nuevoSocket;
+        entrada = nuevaEntrada;
+        // Lo que quedaba para el socket viejo se descarta; hasta que la sala
+        // instale la cola nueva (reanudado) los broadcasts no le llegan
+        if (cola != null) cola.cerrar();
+        cola = null;
+        deflate = nuevoDeflate;
+        precarga = nuevaPrecarga;
+        return true;
+    }
+
+    // Bucle de lectura: recibe peticiones HTTP del cliente por el socket indicado.
+    // El lector solo lo usa este hilo, que devuelve su buffer al terminar. Cada
+    // peticion pasa por el limitador antes de parsearse; los /replay devuelven
+    // ese credito y gastan el suyo.
+    private void leerPeticiones(Socket socketLectura, LectorMensajes entradaLectura) {
+        LimitadorPeticiones limitador = new LimitadorPeticiones();
+        LimitadorPeticiones limitadorReenvios = LimitadorPeticiones.paraReenvios();
+        boolean avisado = false;
+        boolean expulsado = false;
+        try {
+            while (entradaLectura.esperar()) {
+                long espera = limitador.intentar();
+                if (espera > 0) {
+                    if (!avisado) {
+                        Log.warn("[!] " + nombreUsuario + " supera el limite de peticiones ("
+                                + LimitadorPeticiones.POLITICA + ")");
+                        avisado = true;
+                    }
+                    switch (LimitadorPeticiones.POLITICA) {
+                        case DESCARTAR:
+                            LimitadorPeticiones.contarDescartada();
+                            if (!entradaLectura.descartar()) return;
+                            continue;
+                        case RALENTIZAR:
+                            // No se lee nada mas hasta que haya credito: el cliente nota la
+                            // contrapresion del socket
+                            LimitadorPeticiones.contarRalentizada();
+                            do {
+                                Thread.sleep(espera / 1_000_000, (int) (espera % 1_000_000));
+                            } while ((espera = limitador.intentar()) > 0);
+                            break;
+                        case DESCONECTAR:
+                            LimitadorPeticiones.contarDesconexion();
+                            expulsado = true;
+                            return;
+                    }
+                }
+
+                EventoPeticion evento = new EventoPeticion();
+                evento.begin();
+                Map<String, String> mensaje = entradaLectura.leer();
+                if (mensaje == null) break;
+                evento.end();
+                if (evento.shouldCommit()) {
+                    evento.sala = sala.getNombre();
+                    evento.jugadores = sala.getNumJugadores();
+                    evento.jugador = nombreUsuario;
+                    evento.ruta = mensaje.get("path");
+                    evento.bytes = entradaLectura.getTamanoUltimo();
+                    evento.commit();
+                }
                 String path = mensaje.get("path");
                 String body = mensaje.get("body");
 
-                // POST /answer -> procesar respuesta
-                if ("/answer".equals(path) && !haRespondido && body != null && !body.isEmpty()) {
+                // POST /answer -> procesar respuesta (solo cuenta la primera de la ronda)
+                if ("/answer".equals(path) && body != null && !body.trim().isEmpty()) {
                     char resp = Character.toUpperCase(body.trim().charAt(0));
-                    if (resp == 'A' || resp == 'B' || resp == 'C' || resp == 'D') {
-                        respuesta = resp;
-                        tiempoRespuesta = System.currentTimeMillis();
-                        haRespondido = true;
+                    if ((resp == 'A' || resp == 'B' || resp == 'C' || resp == 'D') && sala.responder(this, resp)) {
                         enviarHttp("WAIT", "Respuesta recibida. Esperando a los demas...");
                     }
+                } else if ("/pong".equals(path) && body != null) {
+                    registrarPong(body.trim());
+                } else if ("/replay".equals(path) && body != null && porMulticast) {
+                    limitador.devolver();
+                    if (limitadorReenvios.intentar() == 0) {
+                        reenviar(body.trim());
+                    } else {
+                        LimitadorPeticiones.contarDescartada();
+                    }
                 }
             }
-
         } catch (IOException e) {
-            System.out.println("[-] Error con " + nombreUsuario + ": " + e.getMessage());
+            Log.info("[-] Error con " + nombreUsuario + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
-            desconectar();
+            entradaLectura.liberar();
+            if (expulsado) {
+                // Expulsado por el limitador: sin periodo de gracia para reanudar
+                expirar(socketLectura);
+            } else {
+                conexionPerdida(socketLectura);
+            }
+        }
+    }
+
+    // Solo vale el pong del ultimo PING de la sala, una vez: un cliente no puede
+    // devolver marcas viejas para inflar su RTT (y su compensacion)
+    private void registrarPong(String marca) {
+        long ping;
+        try {
+            ping = Long.parseLong(marca);
+        } catch (NumberFormatException e) {
+            return;
         }
+        if (ping != sala.getUltimoPing() || ping == ultimoPong) return;
+        ultimoPong = ping;
+        rttMs = Latencia.suavizar(rttMs, sala.ahoraMs() - ping);
+    }
+
+    private void terminarUnion(EventoUnion evento, boolean aceptado) {
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.sala = sala.getNombre();
+            evento.jugadores = sala.getNumJugadores();
+            evento.jugador = nombreUsuario;
+            evento.aceptado = aceptado;
+            evento.commit();
+        }
+    }
+
+    // Respuesta escrita desde el hilo de la conexion, antes de que tenga cola de salida
+    private void responder(String tipo, String body) throws IOException {
+        salida.write(HttpUtil.encodeResponse(tipo, body));
+        salida.flush();
     }
 
     // Enviar respuesta HTTP al cliente
     public void enviarHttp(String tipo, String body) {
-        if (salida != null) {
-            salida.print(HttpUtil.buildResponse(tipo, body));
-            salida.flush();
-        }
+        enviarBytes(HttpUtil.encodeResponse(tipo, body));
     }
 
-    // Preparar para nueva ronda
-    public void nuevaRonda() {
-        haRespondido = false;
-        respuesta = ' ';
-        tiempoRespuesta = 0;
+    @Override
+    public void enviar(MensajeCodificado mensaje) {
+        enviarBytes(mensaje.para(deflate));
+    }
+
+    // Enviar un mensaje ya codificado (el mismo array se comparte en los broadcasts).
+    // Solo se encola, asi que no bloquea aunque se llame con el monitor de la sala.
+    // Los errores de escritura los ve el hilo lector, que gestiona la desconexion.
+    public void enviarBytes(byte[] mensaje) {
+        ColaSalida c = cola;
+        if (c != null) c.encolar(mensaje);
+    }
+
+    // Caida de la conexion: el jugador se conserva durante el periodo de gracia
+    private synchronized void conexionPerdida(Socket socketPerdido) {
+        if (socketPerdido != socket) return; // ya se reanudo con otro socket
+        if (tokenSesion == null) {
+            desconectar();
+            return;
+        }
+        try {
+            socketPerdido.close();
+        } catch (IOException e) {
+            Log.error("[ERROR] Cerrando socket de " + nombreUsuario, e);
+        }
+        Log.info("[-] " + nombreUsuario + " se ha desconectado (puede reanudar en "
+                + (RegistroSesiones.GRACIA_MS / 1000) + "s)");
+        sala.conexionPerdida(this);
+        RegistroSesiones.programarExpiracion(() -> expirar(socketPerdido));
     }
 
-    public void sumarPuntos(int puntos) {
-        puntuacionTotal += puntos;
+    // Vence el periodo de gracia: si no ha reanudado, se elimina definitivamente
+    private synchronized void expirar(Socket socketPerdido) {
+        if (socketPerdido != socket) return;
+        RegistroSesiones.revocar(tokenSesion);
+        tokenSesion = null;
+        desconectar();
     }
 
     private void desconectar() {
         try {
-            onRemover.accept(this);
+            RegistroSesiones.revocar(tokenSesion);
+            if (sala != null) sala.remover(this);
             if (nombreUsuario != null) {
-                System.out.println("[-] " + nombreUsuario + " se ha desconectado");
+                Log.info("[-] " + nombreUsuario + " se ha desconectado");
             }
             if (socket != null) socket.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("[ERROR] Cerrando socket de " + nombreUsuario, e);
         }
     }
 
     // Getters
-    public String getNombreUsuario() { return nombreUsuario; }
-    public int getPuntuacionTotal() { return puntuacionTotal; }
-    public boolean haRespondido() { return haRespondido; }
-    public char getRespuesta() { return respuesta; }
-    public long getTiempoRespuesta() { return tiempoRespuesta; }
-    public boolean estaConectado() { return socket != null && !socket.isClosed(); }
+    @Override public String getNombreUsuario() { return nombreUsuario; }
+    public int getPuntuacionTotal() { return sala != null && slot >= 0 ? sala.getRegistro().puntos(slot) : 0; }
+    public Sala getSala() { return sala; }
+    @Override public int getSlot() { return slot; }
+    @Override public void setSlot(int slot) { this.slot = slot; }
+    @Override public int getRttMs() { return rttMs; }
+    @Override public boolean porMulticast() { return porMulticast; }
+    @Override public boolean aceptaPrecarga() { return precarga; }
 }
@@ -0,0 +1,74 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.protocolo.HttpUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hilos de las conexiones de un puerto: uno por jugador mientras dura, hasta
+ * un maximo configurable. Un espectador solo lo ocupa hasta suscribirse al
+ * canal de la sala (ver CanalEspectadores).
+ *
+ * No hay cola: una conexion que no cabe se rechaza al momento con un mensaje
+ * y se cierra, en vez de quedarse esperando sin respuesta a que termine una
+ * partida. Los hilos que sobran se liberan tras un minuto sin uso.
+ */
+public class PoolConexiones {
+    // Rechazo para los clientes del protocolo TCP (el de WebSocket es WebSocket.OCUPADO)
+    public static final byte[] SERVIDOR_LLENO = HttpUtil.encodeResponse("ERROR", "Servidor lleno");
+
+    // Acota lo que puede tardar el rechazo (en TLS incluye el handshake) en el hilo que acepta
+    private static final int TIMEOUT_RECHAZO_MS = 1000;
+
+    private static final LongAdder rechazadas = new LongAdder();
+
+    private final String nombre;
+    private final byte[] rechazo;
+    private final ThreadPoolExecutor pool;
+
+    public PoolConexiones(String nombre, int maximo, byte[] rechazo) {
+        this.nombre = nombre;
+        this.rechazo = rechazo;
+        this.pool = new ThreadPoolExecutor(0, maximo, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, nombre);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Atiende la conexion en un hilo propio, o la rechaza si ya estan todos ocupados
+    public void atender(Socket socket, Runnable manejador) {
+        try {
+            pool.execute(manejador);
+        } catch (RejectedExecutionException e) {
+            rechazadas.increment();
+            Log.warn("[!] Conexion rechazada en " + nombre + ": " + pool.getMaximumPoolSize()
+                    + " conexiones ocupadas (" + socket.getInetAddress() + ")");
+            rechazar(socket);
+        }
+    }
+
+    private void rechazar(Socket socket) {
+        try (socket) {
+            socket.setSoTimeout(TIMEOUT_RECHAZO_MS);
+            OutputStream salida = socket.getOutputStream();
+            salida.write(rechazo);
+            salida.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public void cerrar() {
+        pool.shutdown();
+    }
+
+    public static long getRechazadas() { return rechazadas.sum(); }
+}
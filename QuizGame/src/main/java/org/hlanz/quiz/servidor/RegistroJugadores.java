@@ -0,0 +1,118 @@
+package org.hlanz.quiz.servidor;
+
+import java.util.Arrays;
+
+/**
+ * Jugadores de una sala indexados por un ID entero denso (el slot).
+ *
+ * Cada jugador recibe al unirse el primer ID libre (pila de IDs liberados o el
+ * siguiente sin usar), y nombre, puntos y estado viven en arrays paralelos
+ * indexados por ese ID. Puntuar, ordenar el ranking o hacer un broadcast es
+ * recorrer arrays de 0 a getLimite() sin iteradores ni objetos intermedios.
+ *
+ * Altas, bajas y cambios de estado se serializan con el monitor del registro
+ * (nunca con el de la sala, que se toma mientras se escribe a los sockets).
+ * Las lecturas no bloquean: un recorrido puede ver un cambio de estado con un
+ * evento de retraso, igual que un socket que se cae a mitad de ronda. Los
+ * puntos solo los escribe el hilo de la partida (o, en salas muy grandes, las
+ * tareas de CierreRonda que lanza, cada una en su particion de IDs).
+ */
+public class RegistroJugadores {
+    public static final byte LIBRE = 0;
+    public static final byte CONECTADO = 1;
+    public static final byte DESCONECTADO = 2; // en periodo de gracia para reanudar
+
+    private final Jugador[] jugadores;
+    private final String[] nombres;
+    private final int[] puntos;
+    private final byte[] estados;
+
+    // IDs liberados (pila) para reutilizarlos antes de estrenar otros
+    private final int[] libres;
+    private int numLibres = 0;
+    private volatile int limite = 0; // IDs usados alguna vez: los recorridos van de 0 a limite
+    private volatile int numJugadores = 0;
+
+    public RegistroJugadores(int capacidad) {
+        jugadores = new Jugador[capacidad];
+        nombres = new String[capacidad];
+        puntos = new int[capacidad];
+        estados = new byte[capacidad];
+        libres = new int[capacidad];
+    }
+
+    // ID del nuevo jugador (ya conectado y con 0 puntos) o -1 si no cabe
+    public synchronized int alta(Jugador jugador) {
+        int id;
+        if (numLibres > 0) id = libres[--numLibres];
+        else if (limite < jugadores.length) id = limite;
+        else return -1;
+        nombres[id] = jugador.getNombreUsuario();
+        puntos[id] = 0;
+        estados[id] = CONECTADO;
+        jugadores[id] = jugador;
+        if (id == limite) limite = id + 1;
+        numJugadores++;
+        return id;
+    }
+
+    // Libera el ID si sigue siendo de ese jugador
+    public synchronized boolean baja(int id, Jugador jugador) {
+        if (id < 0 || id >= limite || jugadores[id] != jugador) return false;
+        jugadores[id] = null;
+        nombres[id] = null;
+        estados[id] = LIBRE;
+        libres[numLibres++] = id;
+        numJugadores--;
+        return true;
+    }
+
+    public synchronized void cambiarEstado(int id, byte estado) {
+        if (id >= 0 && id < limite && estados[id] != LIBRE) estados[id] = estado;
+    }
+
+    // Solo el hilo de la partida (o una tarea de CierreRonda con ese ID en su particion)
+    public void sumarPuntos(int id, int cantidad) {
+        puntos[id] += cantidad;
+    }
+
+    // IDs ocupados ordenados por puntos (de mas a menos; a igualdad, el que entro antes)
+    public int[] ordenarPorPuntos() {
+        int n = limite;
+        long[] claves = new long[n];
+        int ocupados = clavesOrden(0, n, claves, 0);
+        Arrays.sort(claves, 0, ocupados);
+        return ordenDesdeClaves(claves, ocupados);
+    }
+
+    // Escribe desde claves[posicion] la clave de orden de cada ID ocupado en
+    // [desde, hasta) y devuelve cuantas escribio. Ordenadas de menor a mayor,
+    // la ultima es la del primero del ranking.
+    public int clavesOrden(int desde, int hasta, long[] claves, int posicion) {
+        int escritas = 0;
+        for (int id = desde; id < hasta; id++) {
+            if (estados[id] == LIBRE) continue;
+            // Puntos en la parte alta; en la baja el ID invertido para desempatar al reves
+            claves[posicion + escritas++] = ((long) puntos[id] << 32) | (Integer.MAX_VALUE - id);
+        }
+        return escritas;
+    }
+
+    // IDs del ranking a partir de las n primeras claves ya ordenadas
+    public static int[] ordenDesdeClaves(long[] claves, int n) {
+        int[] orden = new int[n];
+        for (int i = 0; i < n; i++) {
+            orden[i] = Integer.MAX_VALUE - (int) claves[n - 1 - i];
+        }
+        return orden;
+    }
+
+    public int getLimite() { return limite; }
+    public int getNumJugadores() { return numJugadores; }
+    public int getCapacidad() { return jugadores.length; }
+    public Jugador jugador(int id) { return jugadores[id]; }
+    public String nombre(int id) { return nombres[id]; }
+    public int puntos(int id) { return puntos[id]; }
+    public byte estado(int id) { return estados[id]; }
+    public boolean conectado(int id) { return estados[id] == CONECTADO; }
+}
@@ -0,0 +1,50 @@
+package org.hlanz.quiz.servidor;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Tokens de reanudacion de sesion.
+ * Al hacer POST /join el servidor emite un token (mensaje TOKEN). Si la conexion
+ * se cae, el cliente abre un socket nuevo y envia POST /resume con ese token:
+ * dentro del periodo de gracia recupera el mismo jugador (nombre y puntos).
+ */
+public class RegistroSesiones {
+    public static final long GRACIA_MS = 60_000L; // tiempo para reanudar tras una caida
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final Map<String, ManejadorClienteQuiz> sesiones = new ConcurrentHashMap<>();
+
+    // Un unico hilo daemon para todas las expiraciones pendientes
+    private static final ScheduledExecutorService expiraciones = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "expiracion-sesiones");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Generar token aleatorio (128 bits en hexadecimal) y asociarlo al jugador
+    public static String emitir(ManejadorClienteQuiz jugador) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String token = HexFormat.of().formatHex(bytes);
+        sesiones.put(token, jugador);
+        return token;
+    }
+
+    // Devuelve el jugador asociado al token o null si no existe / ha caducado
+    public static ManejadorClienteQuiz buscar(String token) {
+        if (token == null || token.isEmpty()) return null;
+        return sesiones.get(token);
+    }
+
+    public static void revocar(String token) {
+        if (token != null) sesiones.remove(token);
+    }
+
+    // Ejecutar la tarea cuando venza el periodo de gracia
+    public static void programarExpiracion(Runnable tarea) {
+        expiraciones.schedule(tarea, GRACIA_MS, TimeUnit.MILLISECONDS);
+    }
+}
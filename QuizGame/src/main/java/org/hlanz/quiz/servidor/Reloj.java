@@ -0,0 +1,25 @@
+package org.hlanz.quiz.servidor;
+
+/**
+ * Tiempo y planificacion de eventos de las salas.
+ *
+ * En el servidor es el reloj del sistema sobre el planificador compartido
+ * (RelojSistema). En simulacion es un reloj virtual que salta directamente al
+ * siguiente evento, de modo que una partida entera dura milisegundos.
+ */
+public interface Reloj {
+
+    // Evento programado que aun puede cancelarse
+    interface Tarea {
+        void cancelar();
+    }
+
+    long ahoraMs();
+
+    Tarea programar(Runnable evento, long retrasoMs);
+
+    // Ejecutar lo antes posible fuera del hilo que llama
+    default void ejecutar(Runnable evento) {
+        programar(evento, 0);
+    }
+}
@@ -0,0 +1,30 @@
+package org.hlanz.quiz.servidor;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Reloj real: System.currentTimeMillis y un ScheduledExecutorService
+public class RelojSistema implements Reloj {
+    private final ScheduledExecutorService planificador;
+
+    public RelojSistema(ScheduledExecutorService planificador) {
+        this.planificador = planificador;
+    }
+
+    @Override
+    public long ahoraMs() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public Tarea programar(Runnable evento, long retrasoMs) {
+        ScheduledFuture<?> futuro = planificador.schedule(evento, retrasoMs, TimeUnit.MILLISECONDS);
+        return () -> futuro.cancel(false);
+    }
+
+    @Override
+    public void ejecutar(Runnable evento) {
+        planificador.execute(evento);
+    }
+}
@@ -0,0 +1,483 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.eventos.EventoBroadcast;
+import org.hlanz.quiz.eventos.EventoFaseRonda;
+import org.hlanz.quiz.eventos.EventoRespuesta;
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.modelo.Pregunta;
+import org.hlanz.quiz.protocolo.MensajeCodificado;
+import org.hlanz.quiz.protocolo.Precarga;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Una partida (sala) como maquina de estados LOBBY -> QUESTION -> RESULT -> NEXT -> END.
+ *
+ * Ningun hilo duerme esperando: cada paso es un evento programado en el planificador
+ * compartido (arranque del lobby, fin del tiempo de respuesta, pausa entre preguntas),
+ * asi unos pocos hilos mueven miles de salas. Las transiciones se serializan con el
+ * monitor de la sala y comprueban fase e indice, de modo que un evento que llega tarde
+ * (p. ej. el plazo de una pregunta ya cerrada porque respondieron todos) no hace nada.
+ * El tiempo y los eventos vienen de un Reloj, asi que la misma sala corre en el
+ * servidor o en una simulacion con reloj virtual.
+ *
+ * En la pausa NEXT la siguiente pregunta ya sale cifrada (PRELOAD) hacia los
+ * jugadores que lo aceptan, y al abrir la ronda solo les llega la clave (REVEAL).
+ */
+public class Sala {
+    public enum Fase { LOBBY, QUESTION, RESULT, NEXT, END }
+
+    // Slots de la tabla de respuestas (-Dquiz.sala.capacidad)
+    public static final int CAPACIDAD_JUGADORES = Integer.getInteger("quiz.sala.capacidad", 1024);
+    private static final long TIMEOUT_LOBBY_MS = 90_000L;
+    private static final int MIN_JUGADORES = 2;
+    private static final long PAUSA_ENTRE_PREGUNTAS_MS = 3000L;
+    // Cada cuanto se envia STATS mientras la pregunta esta abierta (si hay respuestas nuevas)
+    private static final long INTERVALO_STATS_MS = Long.getLong("quiz.stats.intervalo", 500L);
+
+    private final String nombre;
+    private final List<Pregunta> preguntas;
+    private final Reloj reloj;
+    private final Consumer<Sala> alTerminar;
+
+    private final RegistroJugadores registro = new RegistroJugadores(CAPACIDAD_JUGADORES);
+    private final AtomicInteger conectados = new AtomicInteger();
+    private final TablaRespuestas tablaRespuestas = new TablaRespuestas(CAPACIDAD_JUGADORES);
+    private final int[] puntosRonda = new int[CAPACIDAD_JUGADORES];
+    private final CierreRonda cierre = CierreRonda.COMPARTIDO; // en paralelo en salas muy grandes
+    private final CanalEspectadores canalEspectadores = new CanalEspectadores();
+    private final HistogramaRespuestas histograma = new HistogramaRespuestas();
+    private final CanalMulticast multicast; // null si no hay multicast
+    // Siguiente pregunta ya enviada cifrada en la pausa (null si no hay) y a que slots llego
+    private Precarga precarga;
+    private final boolean[] conPrecarga = new boolean[CAPACIDAD_JUGADORES];
+
+    // Estado de la maquina (protegido por el monitor de la sala)
+    private volatile Fase fase = Fase.LOBBY;
+    private volatile int indice = -1;
+    private boolean lobbyProgramado = false;
+    private Reloj.Tarea temporizador;
+    private Reloj.Tarea temporizadorStats;
+    private Reloj.Tarea temporizadorPing;
+    private volatile long ultimoPing = -1; // marca del ultimo PING enviado
+    private long respuestasEnStats; // respondidas en el ultimo STATS enviado
+
+    public Sala(String nombre, List<Pregunta> preguntas, Reloj reloj, Consumer<Sala> alTerminar) {
+        this(nombre, preguntas, reloj, alTerminar, null);
+    }
+
+    public Sala(String nombre, List<Pregunta> preguntas, Reloj reloj, Consumer<Sala> alTerminar,
+                CanalMulticast multicast) {
+        this.nombre = nombre;
+        this.preguntas = preguntas;
+        this.reloj = reloj;
+        this.alTerminar = alTerminar;
+        this.multicast = multicast;
+    }
+
+    // ============= EVENTOS DE LOS JUGADORES (hilos lectores) =============
+
+    // Da al jugador su ID (slot) en el registro. Devuelve false si la sala ya termino o esta llena
+    public boolean registrar(Jugador jugador) {
+        return registrar(jugador, null);
+    }
+
+    // Como registrar, y si entra ejecuta alAdmitir antes de que pueda llegarle
+    // ningun broadcast (p. ej. los mensajes de bienvenida del jugador)
+    public synchronized boolean registrar(Jugador jugador, Runnable alAdmitir) {
+        if (fase == Fase.END) return false;
+        int slot = registro.alta(jugador);
+        if (slot < 0) return false;
+        jugador.setSlot(slot);
+        // El slot pudo ser de otro jugador: ni su respuesta de esta ronda ni su precarga son de este
+        tablaRespuestas.liberar(slot);
+        conPrecarga[slot] = false;
+        if (alAdmitir != null) alAdmitir.run();
+        conectados.incrementAndGet();
+        if (temporizadorPing == null) temporizadorPing = reloj.programar(this::enviarPing, 0);
+        int n = registro.getNumJugadores();
+        Log.info("[i] Sala " + nombre + ": jugadores conectados: " + n);
+
+        if (fase == Fase.LOBBY) {
+            if (n >= MIN_JUGADORES) {
+                programar(this::iniciarPartida, 0);
+            } else if (!lobbyProgramado) {
+                lobbyProgramado = true;
+                Log.info("[i] Sala " + nombre + ": primer jugador conectado. El juego arrancara en max 90s.");
+                programar(this::timeoutLobby, TIMEOUT_LOBBY_MS);
+            }
+        }
+        return true;
+    }
+
+    // El contador de conectados solo cambia aqui, en registrar, conexionPerdida y
+    // conexionReanudada, con el monitor de la sala y segun el estado del registro:
+    // un jugador cuenta como conectado mientras su estado es CONECTADO
+    public synchronized void remover(Jugador jugador) {
+        int slot = jugador.getSlot();
+        if (slot < 0) return;
+        boolean contado = registro.conectado(slot);
+        if (!registro.baja(slot, jugador)) return;
+        jugador.setSlot(-1);
+        tablaRespuestas.liberar(slot);
+        if (contado) {
+            conectados.decrementAndGet();
+            respuestaRegistrada();
+        }
+        if (registro.getNumJugadores() == 0 && fase != Fase.LOBBY) {
+            reloj.ejecutar(() -> abandonar());
+        }
+    }
+
+    public synchronized void conexionPerdida(Jugador jugador) {
+        int slot = jugador.getSlot();
+        if (slot < 0 || !registro.conectado(slot)) return;
+        registro.cambiarEstado(slot, RegistroJugadores.DESCONECTADO);
+        conectados.decrementAndGet();
+        respuestaRegistrada(); // puede que ya solo faltara el que se ha ido
+    }
+
+    // Devuelve false si el jugador ya no tiene slot (expiro antes de reanudar). Si
+    // reanuda antes de que se notara la caida ya estaba contado y no se suma otra vez.
+    // Como en registrar, alReanudar se ejecuta antes de que pueda llegarle ningun broadcast
+    public synchronized boolean conexionReanudada(Jugador jugador, Runnable alReanudar) {
+        int slot = jugador.getSlot();
+        if (slot < 0) return false;
+        alReanudar.run();
+        // Si la conexion nueva no recibio el PRELOAD pendiente, que le llegue el QUESTION entero
+        conPrecarga[slot] = false;
+        if (registro.estado(slot) == RegistroJugadores.DESCONECTADO) {
+            registro.cambiarEstado(slot, RegistroJugadores.CONECTADO);
+            conectados.incrementAndGet();
+        }
+        return true;
+    }
+
+    // Respuesta de un jugador a la ronda actual (solo cuenta la primera).
+    // Devuelve false si se ignora: fuera de plazo, ya habia respondido o sin slot.
+    public boolean responder(Jugador jugador, char respuesta) {
+        EventoRespuesta evento = new EventoRespuesta();
+        evento.begin();
+        int slot = jugador.getSlot();
+        // Descontar el viaje de la pregunta hasta el jugador si esta activada la compensacion
+        long ahora = reloj.ahoraMs() - Latencia.compensacion(jugador.getRttMs());
+        boolean aceptada = slot >= 0 && tablaRespuestas.registrar(slot, respuesta, ahora);
+        if (aceptada) {
+            histograma.contar(respuesta);
+            respuestaRegistrada();
+        }
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.sala = nombre;
+            evento.jugadores = registro.getNumJugadores();
+            evento.jugador = jugador.getNombreUsuario();
+            evento.respuesta = respuesta;
+            evento.aceptada = aceptada;
+            evento.msRespuesta = aceptada ? tablaRespuestas.msRespuesta(slot) : -1;
+            evento.rttMs = jugador.getRttMs();
+            evento.commit();
+        }
+        return aceptada;
+    }
+
+    // Si ya pueden haber respondido todos los conectados se comprueba en el
+    // planificador y se cierra la pregunta sin esperar.
+    private void respuestaRegistrada() {
+        if (fase != Fase.QUESTION) return;
+        if (tablaRespuestas.getRespondidas() >= conectados.get()) {
+            int i = indice;
+            reloj.ejecutar(() -> comprobarTodosRespondieron(i));
+        }
+    }
+
+    // ============= TRANSICIONES (hilos del planificador) =============
+
+    private synchronized void timeoutLobby() {
+        if (fase != Fase.LOBBY) return;
+        int n = registro.getNumJugadores();
+        if (n == 0) {
+            abandonar();
+            return;
+        }
+        Log.info("[i] Sala " + nombre + ": timeout de 90s alcanzado con " + n + " jugador(es). Iniciando juego...");
+        iniciarPartida();
+    }
+
+    private synchronized void iniciarPartida() {
+        if (fase != Fase.LOBBY) return;
+        Log.info("[i] Sala " + nombre + ": " + registro.getNumJugadores() + " jugadores conectados. Iniciando juego...");
+        Log.info("\n=== EMPIEZA EL QUIZ (sala " + nombre + ") ===\n");
+        lanzarPregunta(0);
+    }
+
+    private synchronized void lanzarPregunta(int i) {
+        if (fase == Fase.END) return;
+        EventoFaseRonda evento = new EventoFaseRonda();
+        evento.begin();
+        Pregunta pregunta = preguntas.get(i);
+        fase = Fase.QUESTION;
+        indice = i;
+
+        Log.info("--- Pregunta " + (i + 1) + "/" + preguntas.size() + " (sala " + nombre + ", "
+                + pregunta.getTiempoLimiteSeg() + "s) ---");
+        Log.info(pregunta.getPregunta());
+
+        // Abrir la ronda (invalida las respuestas anteriores) y programar el plazo propio de la pregunta
+        histograma.reiniciar();
+        respuestasEnStats = 0;
+        tablaRespuestas.abrirRonda(reloj.ahoraMs());
+        // Quien ya tiene la pregunta cifrada solo recibe la clave
+        MensajeCodificado revelacion = null;
+        if (precarga != null && precarga.getNumero() == i + 1) {
+            revelacion = new MensajeCodificado("REVEAL", precarga.cuerpoRevelacion());
+        }
+        difundir(new MensajeCodificado("QUESTION", cuerpoPregunta(pregunta)), revelacion);
+        precarga = null;
+        Arrays.fill(conPrecarga, false);
+        programar(() -> cerrarPregunta(i), pregunta.getTiempoLimiteSeg() * 1000L);
+        programarStats(i);
+        terminarFase(evento, "lanzarPregunta", i);
+    }
+
+    // STATS periodico de la pregunta abierta; solo se envia si ha habido respuestas
+    private synchronized void emitirStats(int i) {
+        if (fase != Fase.QUESTION || indice != i) return;
+        long[] valores = histograma.instantanea();
+        long total = valores[0] + valores[1] + valores[2] + valores[3];
+        if (total != respuestasEnStats) {
+            respuestasEnStats = total;
+            broadcastHttp("STATS", HistogramaRespuestas.formatear(valores, conectados.get(), ' '));
+        }
+        programarStats(i);
+    }
+
+    private void programarStats(int i) {
+        temporizadorStats = reloj.programar(() -> emitirStats(i), INTERVALO_STATS_MS);
+    }
+
+    // PING periodico con la marca de tiempo de la sala; los jugadores la devuelven en /pong
+    private synchronized void enviarPing() {
+        if (fase == Fase.END) return;
+        ultimoPing = reloj.ahoraMs();
+        broadcastHttp("PING", String.valueOf(ultimoPing));
+        temporizadorPing = reloj.programar(this::enviarPing, Latencia.INTERVALO_PING_MS);
+    }
+
+    private synchronized void comprobarTodosRespondieron(int i) {
+        if (fase != Fase.QUESTION || indice != i) return;
+        for (int id = 0, limite = registro.getLimite(); id < limite; id++) {
+            if (registro.conectado(id) && !tablaRespuestas.haRespondido(id)) return;
+        }
+        cerrarPregunta(i);
+    }
+
+    private synchronized void cerrarPregunta(int i) {
+        if (fase != Fase.QUESTION || indice != i) return;
+        EventoFaseRonda eventoCierre = new EventoFaseRonda();
+        eventoCierre.begin();
+        cancelarTemporizador();
+        Pregunta pregunta = preguntas.get(i);
+
+        // Cerrar la ronda y calcular puntos
+        fase = Fase.RESULT;
+        tablaRespuestas.cerrarRonda();
+        EventoFaseRonda eventoPuntos = new EventoFaseRonda();
+        eventoPuntos.begin();
+        calcularPuntos(pregunta);
+        terminarFase(eventoPuntos, "calcularPuntos", i);
+
+        // Enviar respuesta correcta, reparto final (con aciertos) y ranking
+        broadcastHttp("RESULT", String.valueOf(pregunta.getRespuestaCorrecta()));
+        broadcastHttp("STATS", HistogramaRespuestas.formatear(histograma.instantanea(), conectados.get(),
+                pregunta.getRespuestaCorrecta()));
+        EventoFaseRonda eventoRanking = new EventoFaseRonda();
+        eventoRanking.begin();
+        String ranking = generarRanking();
+        terminarFase(eventoRanking, "generarRanking", i);
+        difundir(cierre.codificar("RANKING", ranking, registro.getLimite()), null);
+        if (!Log.resumenRondas()) Log.info("Ranking: " + ranking + "\n");
+
+        if (i < preguntas.size() - 1) {
+            fase = Fase.NEXT;
+            broadcastHttp("NEXT", "Siguiente pregunta...");
+            programar(() -> lanzarPregunta(i + 1), PAUSA_ENTRE_PREGUNTAS_MS);
+            reloj.ejecutar(() -> precargar(i + 1));
+        } else {
+            terminar();
+        }
+        terminarFase(eventoCierre, "cerrarPregunta", i);
+    }
+
+    // Enviar la pregunta i cifrada a quien la acepta, fuera del camino del RESULT
+    private synchronized void precargar(int i) {
+        if (fase != Fase.NEXT || indice != i - 1) return;
+        precarga = Precarga.cifrar(i + 1, cuerpoPregunta(preguntas.get(i)));
+        MensajeCodificado mensaje = new MensajeCodificado("PRELOAD", precarga.cuerpoPrecarga());
+        int destinatarios = 0;
+        for (int id = 0, limite = registro.getLimite(); id < limite; id++) {
+            Jugador jugador = registro.jugador(id);
+            if (jugador == null || !jugador.aceptaPrecarga() || !registro.conectado(id)
+                    || (multicast != null && jugador.porMulticast())) {
+                continue;
+            }
+            jugador.enviar(mensaje);
+            conPrecarga[id] = true;
+            destinatarios++;
+        }
+        Log.debug("[i] Sala " + nombre + ": pregunta " + (i + 1) + " precargada en " + destinatarios + " jugadores");
+    }
+
+    // Pregunta con las 4 opciones, body de QUESTION
+    private static String cuerpoPregunta(Pregunta pregunta) {
+        return pregunta.getPregunta() + "\n"
+                + "A:" + pregunta.getOpcionA() + "\n"
+                + "B:" + pregunta.getOpcionB() + "\n"
+                + "C:" + pregunta.getOpcionC() + "\n"
+                + "D:" + pregunta.getOpcionD();
+    }
+
+    // Cerrar un evento JFR de fase; los campos solo se rellenan si se va a grabar
+    private void terminarFase(EventoFaseRonda evento, String nombreFase, int i) {
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.sala = nombre;
+            evento.jugadores = registro.getNumJugadores();
+            evento.fase = nombreFase;
+            evento.pregunta = i + 1;
+            evento.commit();
+        }
+    }
+
+    private synchronized void terminar() {
+        if (fase == Fase.END) return;
+        fase = Fase.END;
+        cancelarTemporizador();
+        cancelarPing();
+        String ranking = generarRanking();
+        Log.info("=== FIN DEL QUIZ (sala " + nombre + ") ===");
+        Log.info("Ranking final: " + ranking);
+        difundir(cierre.codificar("END", ranking, registro.getLimite()), null);
+        canalEspectadores.cerrar();
+        alTerminar.accept(this);
+    }
+
+    // Sin jugadores no tiene sentido seguir: se cierra la sala
+    private synchronized void abandonar() {
+        if (fase == Fase.END || registro.getNumJugadores() > 0) return;
+        Log.info("[i] Sala " + nombre + " cerrada: no quedan jugadores");
+        fase = Fase.END;
+        cancelarTemporizador();
+        cancelarPing();
+        canalEspectadores.cerrar();
+        alTerminar.accept(this);
+    }
+
+    // ============= PUNTUACION Y RANKING =============
+
+    private void calcularPuntos(Pregunta pregunta) {
+        // Secuencial o por particiones en paralelo segun el tamano de la sala (ver CierreRonda)
+        CierreRonda.Recuento r = cierre.puntuar(tablaRespuestas, registro, pregunta.getRespuestaCorrecta(), puntosRonda);
+        if (Log.resumenRondas()) {
+            Log.info("  " + r.aciertos + " correctos, " + r.fallos + " incorrectos, " + r.sinResponder + " sin responder");
+            return;
+        }
+        if (!Log.activo(Log.Nivel.INFO)) return;
+        // Una linea por jugador; los puntos ya estan sumados
+        for (int id = 0, limite = registro.getLimite(); id < limite; id++) {
+            if (!registro.conectado(id)) continue;
+            int puntos = puntosRonda[id];
+            if (puntos > 0) {
+                Jugador jugador = registro.jugador(id);
+                Log.info("  " + registro.nombre(id) + ": CORRECTO (" + tablaRespuestas.msRespuesta(id)
+                        + "ms, rtt " + (jugador != null ? jugador.getRttMs() : 0) + "ms) -> +" + puntos + "pts");
+            } else if (tablaRespuestas.haRespondido(id)) {
+                Log.info("  " + registro.nombre(id) + ": INCORRECTO (respondio " + tablaRespuestas.respuesta(id) + ")");
+            } else {
+                Log.info("  " + registro.nombre(id) + ": NO RESPONDIO");
+            }
+        }
+    }
+
+    private String generarRanking() {
+        return cierre.formatearRanking(registro, cierre.ordenar(registro));
+    }
+
+    // Broadcast HTTP a todos los jugadores de la sala y a los espectadores.
+    // El mensaje se codifica una vez (y se comprime a lo sumo una vez) y todos
+    // reciben el mismo array de bytes. Con multicast sale un solo datagrama para
+    // todos los jugadores que lo usan, que ya no lo reciben por TCP.
+    public synchronized void broadcastHttp(String tipo, String body) {
+        difundir(new MensajeCodificado(tipo, body), null);
+    }
+
+    // Como broadcastHttp, pero los jugadores con el PRELOAD de la pregunta reciben
+    // revelacion en su lugar (si no es null). Espectadores y multicast, el mensaje.
+    private synchronized void difundir(MensajeCodificado mensaje, MensajeCodificado revelacion) {
+        EventoBroadcast evento = new EventoBroadcast();
+        evento.begin();
+        String tipo = mensaje.getTipo();
+        long seq = canalEspectadores.publicar(mensaje);
+        if (multicast != null) multicast.enviar(nombre, seq, mensaje);
+        int destinatarios = 0;
+        for (int id = 0, limite = registro.getLimite(); id < limite; id++) {
+            Jugador jugador = registro.jugador(id);
+            if (jugador == null || (multicast != null && jugador.porMulticast())) continue;
+            jugador.enviar(revelacion != null && conPrecarga[id] ? revelacion : mensaje);
+            destinatarios++;
+        }
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.sala = nombre;
+            evento.jugadores = destinatarios;
+            evento.tipo = tipo;
+            evento.bytes = mensaje.plano().length;
+            evento.commit();
+        }
+    }
+
+    // Ejecuta el cambio entre dos broadcasts y devuelve la secuencia del siguiente
+    // (p. ej. pasar un jugador a multicast: desde ese mensaje ya no le llega por TCP)
+    public synchronized long entreBroadcasts(Runnable cambio) {
+        cambio.run();
+        return canalEspectadores.getPublicados();
+    }
+
+    // ============= PLANIFICACION =============
+
+    // Solo hay un evento temporizado pendiente por sala: el nuevo sustituye al anterior
+    private synchronized void programar(Runnable evento, long retrasoMs) {
+        cancelarTemporizador();
+        temporizador = reloj.programar(evento, retrasoMs);
+    }
+
+    private void cancelarPing() {
+        if (temporizadorPing != null) {
+            temporizadorPing.cancelar();
+            temporizadorPing = null;
+        }
+    }
+
+    private void cancelarTemporizador() {
+        if (temporizador != null) {
+            temporizador.cancelar();
+            temporizador = null;
+        }
+        if (temporizadorStats != null) {
+            temporizadorStats.cancelar();
+            temporizadorStats = null;
+        }
+    }
+
+    public String getNombre() { return nombre; }
+    public long ahoraMs() { return reloj.ahoraMs(); }
+    public long getUltimoPing() { return ultimoPing; }
+    public Fase getFase() { return fase; }
+    public TablaRespuestas getTablaRespuestas() { return tablaRespuestas; }
+    public CanalEspectadores getCanalEspectadores() { return canalEspectadores; }
+    public int getNumJugadores() { return registro.getNumJugadores(); }
+    public RegistroJugadores getRegistro() { return registro; }
+    public CanalMulticast getMulticast() { return multicast; }
+    public int getNumPreguntas() { return preguntas.size(); }
+}
@@ -0,0 +1,121 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.protocolo.HttpUtil;
+import org.hlanz.quiz.protocolo.LectorMensajes;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Puerto de administracion: escucha en localhost (-Dquiz.admin.puerto, por
+ * defecto 8081; -Dquiz.admin.direccion para que un RouterQuiz de otra maquina
+ * pueda consultarlo) y atiende una peticion GET por conexion en un unico hilo.
+ *
+ *   GET /leaderboard  clasificacion global del dia (top-K de resultados por partida)
+ *   GET /stats        salas activas y contadores del servidor
+ *   GET /salas        una linea "jugadores sala" por sala abierta (carga del nodo)
+ *
+ * Otras partes del servidor pueden anadir rutas con registrarRuta().
+ */
+public class ServidorAdmin implements Runnable {
+    public static final int PUERTO = Integer.getInteger("quiz.admin.puerto", 8081);
+    private static final String DIRECCION = System.getProperty("quiz.admin.direccion");
+    private static final int MAX_CUERPO = 4 * 1024;
+
+    private final GestorSalas gestorSalas;
+    private final Map<String, Supplier<String>> rutas = new ConcurrentHashMap<>();
+
+    public ServidorAdmin(GestorSalas gestorSalas) {
+        this.gestorSalas = gestorSalas;
+        rutas.put("/leaderboard", this::clasificacion);
+        rutas.put("/stats", this::estadisticas);
+        rutas.put("/salas", this::salas);
+    }
+
+    // Arranca el puerto de administracion en un hilo demonio
+    public static ServidorAdmin arrancar(GestorSalas gestorSalas) {
+        ServidorAdmin admin = new ServidorAdmin(gestorSalas);
+        Thread hilo = new Thread(admin, "admin");
+        hilo.setDaemon(true);
+        hilo.start();
+        return admin;
+    }
+
+    public void registrarRuta(String ruta, Supplier<String> respuesta) {
+        rutas.put(ruta, respuesta);
+    }
+
+    @Override
+    public void run() {
+        try (ServerSocket serverSocket = new ServerSocket(PUERTO, 16, DIRECCION != null
+                ? InetAddress.getByName(DIRECCION) : InetAddress.getLoopbackAddress())) {
+            Log.info("[i] Administracion en " + (DIRECCION != null ? DIRECCION : "localhost") + ":" + PUERTO);
+            while (true) {
+                try (Socket socket = serverSocket.accept()) {
+                    atender(socket);
+                } catch (IOException e) {
+                    Log.debug("[-] Error en peticion de administracion: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("[WARN] No se pudo abrir el puerto de administracion " + PUERTO + ": " + e.getMessage());
+        }
+    }
+
+    private void atender(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        LectorMensajes entrada = new LectorMensajes(socket.getInputStream(), MAX_CUERPO);
+        try {
+            Map<String, String> peticion = entrada.leer();
+            if (peticion == null) return;
+            String path = peticion.getOrDefault("path", "");
+            int query = path.indexOf('?');
+            if (query >= 0) path = path.substring(0, query);
+
+            Supplier<String> ruta = rutas.get(path);
+            byte[] respuesta = ruta != null
+                    ? HttpUtil.encodeResponse("ADMIN", ruta.get())
+                    : HttpUtil.encodeResponse("ERROR", "Ruta desconocida: " + path);
+            socket.getOutputStream().write(respuesta);
+            socket.getOutputStream().flush();
+        } finally {
+            entrada.liberar();
+        }
+    }
+
+    // Una linea por entrada: posicion, nombre, puntos y sala donde los consiguio
+    private String clasificacion() {
+        List<ClasificacionGlobal.Entrada> mejores = gestorSalas.getClasificacion().consultar();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mejores.size(); i++) {
+            ClasificacionGlobal.Entrada e = mejores.get(i);
+            sb.append(i + 1).append(".").append(e.getNombre())
+              .append("(").append(e.getPuntos()).append("pts) sala ").append(e.getSala()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private String salas() {
+        StringBuilder sb = new StringBuilder();
+        for (Sala sala : gestorSalas.getSalas()) {
+            sb.append(sala.getNumJugadores()).append(' ').append(sala.getNombre()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String estadisticas() {
+        return "salas=" + gestorSalas.getNumSalas() + "\n"
+                + "jugadores=" + gestorSalas.getNumJugadores() + "\n"
+                + "peticiones: " + LimitadorPeticiones.resumen() + "\n"
+                + "colas de salida desbordadas=" + ColaSalida.getDesbordadas() + "\n"
+                + "conexiones rechazadas=" + PoolConexiones.getRechazadas() + "\n"
+                + "log descartados=" + Log.getDescartados() + "\n";
+    }
+}
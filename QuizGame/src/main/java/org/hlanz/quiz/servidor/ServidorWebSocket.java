@@ -0,0 +1,54 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.protocolo.WebSocket;
+
+import javax.net.ServerSocketFactory;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Puerto WebSocket para jugadores desde el navegador (-Dquiz.ws.puerto, por
+ * defecto 8082).
+ *
+ * Solo acepta conexiones: cada una la atiende un ManejadorClienteQuiz en modo
+ * WebSocket, con las mismas salas que los jugadores TCP pero con sus propios
+ * hilos (-Dquiz.ws.max.clientes, por defecto 1024; las demas reciben un 503).
+ * Tras el handshake cada trama lleva un mensaje del protocolo tal cual
+ * (POST /join, POST /answer... y las respuestas con X-Type); las respuestas
+ * con el body comprimido van en tramas binarias.
+ */
+public class ServidorWebSocket implements Runnable {
+    public static final int PUERTO = Integer.getInteger("quiz.ws.puerto", 8082);
+    private static final int MAX_CLIENTES = Integer.getInteger("quiz.ws.max.clientes", 1024);
+
+    private final ServerSocketFactory fabrica;
+    private final PoolConexiones pool = new PoolConexiones("websocket", MAX_CLIENTES, WebSocket.OCUPADO);
+    private final GestorSalas gestorSalas;
+
+    private ServidorWebSocket(ServerSocketFactory fabrica, GestorSalas gestorSalas) {
+        this.fabrica = fabrica;
+        this.gestorSalas = gestorSalas;
+    }
+
+    // Arranca el puerto WebSocket en un hilo demonio (con la fabrica SSL queda wss://)
+    public static void arrancar(ServerSocketFactory fabrica, GestorSalas gestorSalas) {
+        Thread hilo = new Thread(new ServidorWebSocket(fabrica, gestorSalas), "websocket");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    @Override
+    public void run() {
+        try (ServerSocket serverSocket = fabrica.createServerSocket(PUERTO)) {
+            Log.info("[i] WebSocket en el puerto " + PUERTO);
+            while (true) {
+                Socket clientSocket = serverSocket.accept();
+                pool.atender(clientSocket, new ManejadorClienteQuiz(clientSocket, gestorSalas, true));
+            }
+        } catch (IOException e) {
+            Log.warn("[WARN] No se pudo abrir el puerto WebSocket " + PUERTO + ": " + e.getMessage());
+        }
+    }
+}
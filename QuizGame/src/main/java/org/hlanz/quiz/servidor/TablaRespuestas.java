@@ -0,0 +1,143 @@
+package org.hlanz.quiz.servidor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Respuestas de la ronda actual, indexadas por slot de jugador (el ID que
+ * asigna RegistroJugadores).
+ *
+ * Cada slot es un unico long empaquetado [epoca:32][sin respuesta:1][respuesta:2][ms:28],
+ * asi que la primera respuesta de la ronda se publica con un solo CAS (la primera
+ * gana) y el hilo del juego nunca ve una respuesta a medio escribir.
+ * La epoca es impar mientras la ronda esta abierta y par cuando esta cerrada:
+ * abrir una ronda nueva invalida todas las respuestas anteriores en O(1).
+ *
+ * Un jugador puede leer la epoca abierta justo antes de que se cierre la ronda
+ * y hacer su CAS cuando ya se esta puntuando. Para que eso no dependa de si
+ * puntuar ya paso por su slot, puntuar sella con un CAS cada slot sin respuesta
+ * de la ronda cerrada (epoca de la ronda + bit SIN_RESPUESTA): a partir de ahi
+ * el CAS tardio falla y la respuesta se rechaza. Una respuesta aceptada es
+ * siempre una respuesta puntuada.
+ */
+public class TablaRespuestas {
+    private static final int BITS_MS = 28;
+    private static final long MAX_MS = (1L << BITS_MS) - 1;
+    private static final long SIN_RESPUESTA = 1L << (BITS_MS + 2); // slot sellado al puntuar
+
+    private final AtomicLongArray respuestas;
+    private final AtomicInteger respondidas = new AtomicInteger(); // en la ronda actual
+
+    private volatile int epoca = 0;
+    private volatile long inicioRonda;
+
+    public TablaRespuestas(int capacidad) {
+        respuestas = new AtomicLongArray(capacidad);
+    }
+
+    // Abrir ronda: las respuestas se cuentan desde inicioMs
+    public void abrirRonda(long inicioMs) {
+        inicioRonda = inicioMs;
+        respondidas.set(0);
+        if ((epoca & 1) == 0) epoca = epoca + 1; // solo escribe el hilo del juego
+    }
+
+    // Cerrar ronda: a partir de aqui se rechazan las respuestas
+    public void cerrarRonda() {
+        if ((epoca & 1) == 1) epoca = epoca + 1;
+    }
+
+    // Registrar respuesta (A-D). Devuelve false si la ronda esta cerrada (o ya se
+    // sello su slot al puntuar) o si ya respondio
+    public boolean registrar(int slot, char respuesta, long ahoraMs) {
+        int e = epoca;
+        if ((e & 1) == 0) return false;
+        long ms = Math.min(MAX_MS, Math.max(0, ahoraMs - inicioRonda));
+        long valor = ((long) e << 32) | ((long) (respuesta - 'A') << BITS_MS) | ms;
+        while (true) {
+            long actual = respuestas.get(slot);
+            if (epocaDe(actual) == e) return false;
+            if (respuestas.compareAndSet(slot, actual, valor)) {
+                respondidas.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    // Olvidar la respuesta del slot (se libero y puede ocuparlo otro jugador en esta ronda)
+    public void liberar(int slot) {
+        respuestas.set(slot, 0);
+    }
+
+    public boolean haRespondido(int slot) {
+        return respondio(respuestas.get(slot), rondaActual());
+    }
+
+    // Respuesta de la ronda actual o ' ' si no ha respondido
+    public char respuesta(int slot) {
+        long v = respuestas.get(slot);
+        if (!respondio(v, rondaActual())) return ' ';
+        return (char) ('A' + ((v >>> BITS_MS) & 3));
+    }
+
+    // Milisegundos desde el inicio de la ronda hasta la respuesta o -1 si no ha respondido
+    public long msRespuesta(int slot) {
+        long v = respuestas.get(slot);
+        if (!respondio(v, rondaActual())) return -1;
+        return v & MAX_MS;
+    }
+
+    // Puntuar la ronda actual en un solo recorrido de la tabla.
+    // Deja en puntos[slot] los puntos ganados (0 si fallo o no respondio)
+    // y devuelve el numero de aciertos.
+    public int puntuar(char correcta, int[] puntos) {
+        return puntuar(correcta, puntos, 0, Math.min(puntos.length, respuestas.length()));
+    }
+
+    // Igual, solo para los slots [desde, hasta): particiones disjuntas se pueden
+    // puntuar a la vez desde varios hilos (ver CierreRonda). Con la ronda cerrada
+    // sella los slots sin respuesta para que no entre ninguna despues
+    public int puntuar(char correcta, int[] puntos, int desde, int hasta) {
+        int e = epoca;
+        int ronda = (e & 1) == 1 ? e : e - 1;
+        boolean cerrada = e > 0 && (e & 1) == 0;
+        long sello = ((long) ronda << 32) | SIN_RESPUESTA;
+        long codigoCorrecta = Character.toUpperCase(correcta) - 'A';
+        int aciertos = 0;
+        for (int slot = desde; slot < hasta; slot++) {
+            long v = respuestas.get(slot);
+            while (cerrada && epocaDe(v) != ronda && !respuestas.compareAndSet(slot, v, sello)) {
+                v = respuestas.get(slot); // entro una respuesta justo ahora: puntuarla
+            }
+            if (respondio(v, ronda) && ((v >>> BITS_MS) & 3) == codigoCorrecta) {
+                puntos[slot] = puntosPorTiempo(v & MAX_MS);
+                aciertos++;
+            } else {
+                puntos[slot] = 0;
+            }
+        }
+        return aciertos;
+    }
+
+    // 1000 puntos respondiendo al instante, -1 punto cada 10ms, minimo 100
+    public static int puntosPorTiempo(long ms) {
+        return Math.max(100, 1000 - (int) (ms / 10));
+    }
+
+    public int getCapacidad() { return respuestas.length(); }
+    public int getRespondidas() { return respondidas.get(); }
+
+    // Epoca impar de la ultima ronda abierta (este abierta o ya cerrada)
+    private int rondaActual() {
+        int e = epoca;
+        return (e & 1) == 1 ? e : e - 1;
+    }
+
+    private static boolean respondio(long valor, int ronda) {
+        return epocaDe(valor) == ronda && (valor & SIN_RESPUESTA) == 0;
+    }
+
+    private static int epocaDe(long valor) {
+        return (int) (valor >>> 32);
+    }
+}
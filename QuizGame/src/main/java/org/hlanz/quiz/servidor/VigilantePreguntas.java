@@ -0,0 +1,173 @@
+package org.hlanz.quiz.servidor;
+
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.modelo.BancoPreguntas;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Recarga en caliente del banco de preguntas desde un directorio de CSV
+ * (-Dquiz.preguntas.dir).
+ *
+ * Un hilo demonio vigila el directorio con WatchService. Cuando los cambios se
+ * calman, copia los CSV a una instantanea propia (el indice apunta a offsets,
+ * asi que no puede leer ficheros que alguien esta editando), la indexa, parsea
+ * las preguntas y solo entonces la cambia en el GestorSalas. Las salas en
+ * juego conservan sus preguntas y las nuevas usan la instantanea nueva. Si la
+ * recarga falla o no queda ninguna pregunta valida se mantiene la anterior.
+ */
+public class VigilantePreguntas implements Runnable {
+    private static final long CALMA_MS = 500;           // espera tras el ultimo cambio
+    private static final long BORRADO_DIFERIDO_MS = 60_000; // vida de una instantanea sustituida
+
+    private final Path directorio;
+    private final GestorSalas gestorSalas;
+    private Path instantaneaActual; // null: la inicial, que se borra al salir
+    private final Deque<Caducada> pendientesBorrar = new ArrayDeque<>();
+
+    // Instantanea sustituida y cuando se puede borrar
+    private static class Caducada {
+        final long instante;
+        final Path copia;
+
+        Caducada(long instante, Path copia) {
+            this.instante = instante;
+            this.copia = copia;
+        }
+    }
+
+    private VigilantePreguntas(Path directorio, GestorSalas gestorSalas) {
+        this.directorio = directorio;
+        this.gestorSalas = gestorSalas;
+    }
+
+    // Banco a partir de una copia de los CSV del directorio, o null si no hay ninguno valido
+    public static BancoPreguntas cargar(Path directorio) throws IOException {
+        Path copia = copiarCsv(directorio);
+        BancoPreguntas banco = indexar(copia);
+        if (banco == null) borrar(copia);
+        return banco;
+    }
+
+    // Empieza a vigilar el directorio; cada recarga valida se pasa al gestor
+    public static void arrancar(Path directorio, GestorSalas gestorSalas) {
+        Thread hilo = new Thread(new VigilantePreguntas(directorio, gestorSalas), "vigilante-preguntas");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    @Override
+    public void run() {
+        try (WatchService vigilante = directorio.getFileSystem().newWatchService()) {
+            directorio.register(vigilante, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            Log.info("[i] Vigilando preguntas en " + directorio);
+            while (true) {
+                WatchKey clave = vigilante.poll(1, TimeUnit.SECONDS);
+                borrarCaducadas();
+                if (clave == null) continue;
+                boolean hayCambios = hayCsv(clave);
+                // Un editor suele generar varios eventos seguidos: esperar a que se calme
+                while ((clave = vigilante.poll(CALMA_MS, TimeUnit.MILLISECONDS)) != null) {
+                    hayCambios |= hayCsv(clave);
+                }
+                if (hayCambios) recargar();
+            }
+        } catch (IOException e) {
+            Log.warn("[WARN] No se puede vigilar " + directorio + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean hayCsv(WatchKey clave) {
+        boolean csv = false;
+        for (WatchEvent<?> evento : clave.pollEvents()) {
+            Object contexto = evento.context();
+            if (evento.kind() == StandardWatchEventKinds.OVERFLOW
+                    || (contexto instanceof Path && esCsv((Path) contexto))) {
+                csv = true;
+            }
+        }
+        clave.reset();
+        return csv;
+    }
+
+    // Todo el trabajo (copiar, indexar, parsear) ocurre en este hilo
+    private void recargar() {
+        long inicio = System.nanoTime();
+        Path copia = null;
+        try {
+            copia = copiarCsv(directorio);
+            BancoPreguntas banco = indexar(copia);
+            if (banco == null) {
+                Log.warn("[WARN] " + directorio + " no tiene preguntas validas; se mantiene el banco actual");
+                borrar(copia);
+                return;
+            }
+            gestorSalas.cambiarBanco(banco);
+            Log.info("[i] Banco de preguntas recargado: " + banco.getNumPreguntas() + " " + banco.getGrupos()
+                    + " en " + (System.nanoTime() - inicio) / 1_000_000 + "ms");
+            if (instantaneaActual != null) {
+                pendientesBorrar.add(new Caducada(System.currentTimeMillis() + BORRADO_DIFERIDO_MS, instantaneaActual));
+            }
+            instantaneaActual = copia;
+        } catch (IOException | RuntimeException e) {
+            Log.warn("[WARN] No se pudo recargar el banco de preguntas: " + e.getMessage());
+            if (copia != null) borrar(copia);
+        }
+    }
+
+    // Una sala creada justo antes del cambio aun puede estar leyendo la instantanea vieja
+    private void borrarCaducadas() {
+        long ahora = System.currentTimeMillis();
+        while (!pendientesBorrar.isEmpty() && pendientesBorrar.peekFirst().instante <= ahora) {
+            borrar(pendientesBorrar.pollFirst().copia);
+        }
+    }
+
+    private static Path copiarCsv(Path directorio) throws IOException {
+        Path copia = Files.createTempDirectory("preguntas-");
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            for (Path archivo : (Iterable<Path>) archivos.filter(a -> esCsv(a) && Files.isRegularFile(a)).sorted()::iterator) {
+                Path destino = copia.resolve(archivo.getFileName());
+                Files.copy(archivo, destino, StandardCopyOption.REPLACE_EXISTING);
+                destino.toFile().deleteOnExit();
+            }
+        }
+        copia.toFile().deleteOnExit();
+        return copia;
+    }
+
+    private static BancoPreguntas indexar(Path copia) throws IOException {
+        List<Path> archivos = new ArrayList<>();
+        try (Stream<Path> lista = Files.list(copia)) {
+            lista.sorted().forEach(archivos::add);
+        }
+        if (archivos.isEmpty()) return null;
+        BancoPreguntas banco = BancoPreguntas.indexar(archivos);
+        return banco.getNumPreguntas() > 0 ? banco : null;
+    }
+
+    private static boolean esCsv(Path archivo) {
+        return archivo.getFileName().toString().toLowerCase().endsWith(".csv");
+    }
+
+    private static void borrar(Path copia) {
+        try (Stream<Path> archivos = Files.list(copia)) {
+            for (Path archivo : (Iterable<Path>) archivos::iterator) {
+                Files.deleteIfExists(archivo);
+            }
+            Files.deleteIfExists(copia);
+        } catch (IOException e) {
+            Log.debug("[-] No se pudo borrar la instantanea " + copia + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.hlanz.quiz.simulacion;
+
+import org.hlanz.quiz.protocolo.MensajeCodificado;
+import org.hlanz.quiz.servidor.Jugador;
+import org.hlanz.quiz.servidor.Reloj;
+import org.hlanz.quiz.servidor.Sala;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Jugador en memoria: recibe los mismos bytes que un socket (transporte en
+ * memoria) y, al llegar una QUESTION, programa su respuesta en el reloj tras
+ * un tiempo de reaccion aleatorio. Con la misma semilla responde siempre igual.
+ */
+public class JugadorSimulado implements Jugador {
+    // Todas las respuestas del servidor empiezan igual; el tipo va justo despues
+    private static final byte[] PREFIJO = "HTTP/1.1 200 OK\r\nX-Type: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] QUESTION = "QUESTION\r".getBytes(StandardCharsets.US_ASCII);
+    private static final char[] OPCIONES = {'A', 'B', 'C', 'D'};
+
+    private final int id;
+    private final String nombre;
+    private final Random random;
+    private final Reloj reloj;
+    private final long reaccionMaxMs;
+    private final double probabilidadResponder;
+    private Sala sala;
+
+    private int slot = -1;
+    private long mensajes = 0;
+    private long bytes = 0;
+
+    public JugadorSimulado(int id, long semilla, Reloj reloj, long reaccionMaxMs, double probabilidadResponder) {
+        this.id = id;
+        this.nombre = "bot" + id;
+        this.random = new Random(semilla);
+        this.reloj = reloj;
+        this.reaccionMaxMs = reaccionMaxMs;
+        this.probabilidadResponder = probabilidadResponder;
+    }
+
+    public boolean unirse(Sala sala) {
+        this.sala = sala;
+        return sala.registrar(this);
+    }
+
+    @Override
+    public void enviar(MensajeCodificado codificado) {
+        byte[] mensaje = codificado.plano();
+        mensajes++;
+        bytes += mensaje.length;
+        if (esPregunta(mensaje) && random.nextDouble() < probabilidadResponder) {
+            char respuesta = OPCIONES[random.nextInt(OPCIONES.length)];
+            long reaccion = 1 + (long) (random.nextDouble() * reaccionMaxMs);
+            reloj.programar(() -> sala.responder(this, respuesta), reaccion);
+        }
+    }
+
+    private static boolean esPregunta(byte[] mensaje) {
+        if (mensaje.length < PREFIJO.length + QUESTION.length) return false;
+        for (int i = 0; i < QUESTION.length; i++) {
+            if (mensaje[PREFIJO.length + i] != QUESTION[i]) return false;
+        }
+        return true;
+    }
+
+    @Override public String getNombreUsuario() { return nombre; }
+    @Override public int getSlot() { return slot; }
+    @Override public void setSlot(int slot) { this.slot = slot; }
+    @Override public int getRttMs() { return 0; }
+
+    public long getMensajes() { return mensajes; }
+    public long getBytes() { return bytes; }
+}
@@ -0,0 +1,81 @@
+package org.hlanz.quiz.simulacion;
+
+import org.hlanz.quiz.servidor.Reloj;
+
+import java.util.PriorityQueue;
+
+/**
+ * Reloj de simulacion: el tiempo solo avanza al ejecutar el siguiente evento.
+ *
+ * Los eventos se ordenan por instante y, a igualdad, por orden de programacion,
+ * asi que la misma simulacion con la misma semilla da siempre el mismo
+ * resultado. Es de un solo hilo: todo (salas y jugadores simulados) corre en
+ * el hilo que llama a ejecutar*().
+ */
+public class RelojVirtual implements Reloj {
+    private final PriorityQueue<Evento> cola = new PriorityQueue<>();
+    private long ahora;
+    private long secuencia = 0;
+    private long ejecutados = 0;
+
+    public RelojVirtual(long inicioMs) {
+        this.ahora = inicioMs;
+    }
+
+    @Override
+    public long ahoraMs() {
+        return ahora;
+    }
+
+    @Override
+    public Tarea programar(Runnable accion, long retrasoMs) {
+        Evento evento = new Evento(ahora + Math.max(0, retrasoMs), secuencia++, accion);
+        cola.add(evento);
+        return evento;
+    }
+
+    // Ejecutar el siguiente evento saltando hasta su instante. false si no quedan
+    public boolean paso() {
+        Evento evento;
+        do {
+            evento = cola.poll();
+            if (evento == null) return false;
+        } while (evento.cancelado);
+        ahora = evento.instante;
+        ejecutados++;
+        evento.accion.run();
+        return true;
+    }
+
+    // Ejecutar eventos hasta que no quede ninguno
+    public void ejecutarTodo() {
+        while (paso()) { }
+    }
+
+    public long getEjecutados() { return ejecutados; }
+    public int getPendientes() { return cola.size(); }
+
+    private static class Evento implements Comparable<Evento>, Tarea {
+        final long instante;
+        final long orden;
+        final Runnable accion;
+        boolean cancelado;
+
+        Evento(long instante, long orden, Runnable accion) {
+            this.instante = instante;
+            this.orden = orden;
+            this.accion = accion;
+        }
+
+        @Override
+        public void cancelar() {
+            cancelado = true;
+        }
+
+        @Override
+        public int compareTo(Evento otro) {
+            int c = Long.compare(instante, otro.instante);
+            return c != 0 ? c : Long.compare(orden, otro.orden);
+        }
+    }
+}
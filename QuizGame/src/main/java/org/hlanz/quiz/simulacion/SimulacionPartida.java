@@ -0,0 +1,95 @@
+package org.hlanz.quiz.simulacion;
+
+import org.hlanz.quiz.modelo.BancoPreguntas;
+import org.hlanz.quiz.modelo.Pregunta;
+import org.hlanz.quiz.servidor.RegistroJugadores;
+import org.hlanz.quiz.servidor.Sala;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Partida completa con reloj virtual y jugadores en memoria.
+ *
+ * Lobby, rondas y pausas se recorren saltando de evento en evento, asi que una
+ * partida de 50 preguntas (unos 15 minutos reales) con miles de jugadores
+ * termina en milisegundos. Con la misma semilla el resultado es identico, lo
+ * que sirve para comprobar puntuacion y ranking y para medir su coste.
+ *
+ * Uso: java org.hlanz.quiz.simulacion.SimulacionPartida [jugadores] [semilla] [preguntas]
+ *   jugadores  numero de jugadores simulados (por defecto 1000)
+ *   semilla    semilla de las respuestas y de la seleccion de preguntas (por defecto 42)
+ *   preguntas  K preguntas al azar del banco (por defecto todas, en orden)
+ */
+public class SimulacionPartida {
+    private static final long REACCION_MAX_MS = 20_000L; // algunos no llegan a tiempo
+    private static final double PROBABILIDAD_RESPONDER = 0.95;
+
+    public static void main(String[] args) throws IOException {
+        int numJugadores = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long semilla = args.length > 1 ? Long.parseLong(args[1]) : 42L;
+        int numPreguntas = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        // Antes de cargar Log y Sala: sin log por jugador y sitio para todos en la sala
+        if (System.getProperty("quiz.log.nivel") == null) System.setProperty("quiz.log.nivel", "WARN");
+        if (System.getProperty("quiz.log.resumen") == null) System.setProperty("quiz.log.resumen", "true");
+        if (System.getProperty("quiz.sala.capacidad") == null) {
+            System.setProperty("quiz.sala.capacidad", String.valueOf(Math.max(1024, numJugadores)));
+        }
+
+        List<Pregunta> preguntas = cargarPreguntas(numPreguntas, new Random(semilla));
+        if (preguntas.isEmpty()) {
+            System.err.println("[ERROR] No hay preguntas para simular");
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        RelojVirtual reloj = new RelojVirtual(0);
+        boolean[] terminada = {false};
+        Sala sala = new Sala("simulacion", preguntas, reloj, s -> terminada[0] = true);
+
+        List<JugadorSimulado> jugadores = new ArrayList<>(numJugadores);
+        for (int i = 0; i < numJugadores; i++) {
+            JugadorSimulado jugador = new JugadorSimulado(i, semilla * 31 + i, reloj,
+                    REACCION_MAX_MS, PROBABILIDAD_RESPONDER);
+            if (!jugador.unirse(sala)) {
+                System.err.println("[ERROR] Sala llena con " + i + " jugadores");
+                return;
+            }
+            jugadores.add(jugador);
+        }
+        reloj.ejecutarTodo();
+        long duracionMs = (System.nanoTime() - inicio) / 1_000_000;
+
+        long mensajes = 0, bytes = 0, huella = 17;
+        RegistroJugadores registro = sala.getRegistro();
+        JugadorSimulado mejor = jugadores.get(0);
+        for (JugadorSimulado jugador : jugadores) {
+            mensajes += jugador.getMensajes();
+            bytes += jugador.getBytes();
+            int puntos = registro.puntos(jugador.getSlot());
+            huella = huella * 31 + puntos;
+            if (puntos > registro.puntos(mejor.getSlot())) mejor = jugador;
+        }
+
+        System.out.println("=== SIMULACION ===");
+        System.out.println("Jugadores: " + numJugadores + ", preguntas: " + preguntas.size() + ", semilla: " + semilla);
+        System.out.println("Partida terminada: " + terminada[0] + " (fase " + sala.getFase() + ")");
+        System.out.println("Tiempo simulado: " + (reloj.ahoraMs() / 1000) + "s en " + duracionMs + "ms reales");
+        System.out.println("Eventos: " + reloj.getEjecutados() + ", mensajes entregados: " + mensajes
+                + " (" + (bytes / 1024) + " KB)");
+        System.out.println("Ganador: " + mejor.getNombreUsuario() + " con " + registro.puntos(mejor.getSlot()) + "pts");
+        System.out.println("Huella de puntuaciones: " + Long.toHexString(huella));
+    }
+
+    private static List<Pregunta> cargarPreguntas(int num, Random random) throws IOException {
+        try (InputStream is = SimulacionPartida.class.getClassLoader().getResourceAsStream("blocket.csv")) {
+            if (is == null) throw new IOException("No se encontro blocket.csv en resources");
+            BancoPreguntas banco = BancoPreguntas.desdeStream(is);
+            return num > 0 ? banco.muestrear(null, null, num, random) : banco.todas();
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package org.hlanz.quiz.ssl;
 
+import org.hlanz.quiz.protocolo.Compresion;
 import org.hlanz.quiz.protocolo.HttpUtil;
+import org.hlanz.quiz.protocolo.LectorMensajes;
+import org.hlanz.quiz.protocolo.Precarga;
 
 import javax.net.ssl.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.X509Certificate;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
 
@@ -15,12 +20,19 @@ import java.util.Scanner;
  */
 public class ClienteQuizSSL {
     private static String HOST = "localhost";
+    private static String SALA = null; // sala por defecto del servidor
     private static int PUERTO = 8443;
 
-    private SSLSocket socket;
-    private PrintWriter salida;
-    private BufferedReader entrada;
+    private static final int MAX_INTENTOS_REANUDAR = 5;
+    private static final int MAX_CUERPO = 1024 * 1024; // rankings de salas grandes
+
+    private volatile SSLSocket socket;
+    private volatile PrintWriter salida;
+    private volatile LectorMensajes entrada;
+    private volatile String tokenSesion; // recibido en el mensaje TOKEN tras /join
+    private volatile String precarga; // body del ultimo PRELOAD, a la espera de su REVEAL
     private Scanner scanner;
+    private SSLSocketFactory factory;
     private volatile boolean conectado = true;
 
     public ClienteQuizSSL() {
@@ -43,18 +55,18 @@ public class ClienteQuizSSL {
             sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
 
             // Crear SSLSocket
-            SSLSocketFactory factory = sslContext.getSocketFactory();
+            factory = sslContext.getSocketFactory();
             socket = (SSLSocket) factory.createSocket(HOST, PUERTO);
 
-            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            salida = new PrintWriter(socket.getOutputStream(), false);
+            entrada = new LectorMensajes(socket.getInputStream(), MAX_CUERPO);
+            salida = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false);
 
             System.out.println("=== QUIZ GAME (SSL/TLS) ===");
             System.out.println("Protocolo: HTTP/1.1 sobre TCP con SSL/TLS");
             System.out.println("Conectado al servidor en puerto " + PUERTO + "\n");
 
             // Leer respuesta HTTP de bienvenida
-            Map<String, String> bienvenida = HttpUtil.parse(entrada);
+            Map<String, String> bienvenida = entrada.leer();
             if (bienvenida != null) {
                 System.out.println(bienvenida.get("body"));
             }
@@ -62,7 +74,15 @@ public class ClienteQuizSSL {
             // Enviar nombre con peticion HTTP: POST /join
             System.out.print("Introduce tu nombre: ");
             String nombre = scanner.nextLine().trim();
-            enviarPeticion("POST", "/join", nombre);
+            // Accept-Encoding: los mensajes largos (preguntas, rankings) llegan comprimidos
+            // y LectorMensajes los descomprime al leerlos
+            Map<String, String> cabeceras = new HashMap<>();
+            cabeceras.put(Compresion.ACEPTAR, Compresion.DEFLATE);
+            if (SALA != null) cabeceras.put("X-Room", SALA);
+            // X-Preload: la siguiente pregunta llega cifrada en la pausa y al empezar la ronda solo la clave
+            cabeceras.put(Precarga.CABECERA, "1");
+            salida.print(HttpUtil.buildRequest("POST", "/join", cabeceras, nombre));
+            salida.flush();
 
             // Hilo listener para recibir respuestas HTTP del servidor
             Thread listener = new Thread(new ListenerServidor());
@@ -95,12 +115,56 @@ public class ClienteQuizSSL {
         }
     }
 
+    // Reconectar y enviar POST /resume con el token para conservar nombre y puntos
+    private boolean reanudarSesion() {
+        for (int intento = 1; intento <= MAX_INTENTOS_REANUDAR && conectado; intento++) {
+            try {
+                Thread.sleep(1000L * intento);
+                System.out.println("[i] Reconectando (intento " + intento + "/" + MAX_INTENTOS_REANUDAR + ")...");
+                SSLSocket nuevo = (SSLSocket) factory.createSocket(HOST, PUERTO);
+                LectorMensajes nuevaEntrada = new LectorMensajes(nuevo.getInputStream(), MAX_CUERPO);
+                PrintWriter nuevaSalida = new PrintWriter(new OutputStreamWriter(nuevo.getOutputStream(), StandardCharsets.UTF_8), false);
+
+                nuevaEntrada.leer(); // bienvenida del servidor
+                nuevaSalida.print(HttpUtil.buildRequest("POST", "/resume",
+                        Map.of(Compresion.ACEPTAR, Compresion.DEFLATE, Precarga.CABECERA, "1"), tokenSesion));
+                nuevaSalida.flush();
+
+                // Lo que llegue antes del WELCOME (o del ERROR) no es la respuesta al /resume
+                Map<String, String> respuesta = nuevaEntrada.leer();
+                while (respuesta != null && !"WELCOME".equals(respuesta.get("X-Type"))
+                        && !"ERROR".equals(respuesta.get("X-Type"))) {
+                    respuesta = nuevaEntrada.leer();
+                }
+                if (respuesta == null || !"WELCOME".equals(respuesta.get("X-Type"))) {
+                    // Token rechazado: la sesion ya no existe en el servidor
+                    if (respuesta != null) System.out.println("[!] " + respuesta.get("body"));
+                    nuevaEntrada.liberar();
+                    nuevo.close();
+                    return false;
+                }
+
+                try { socket.close(); } catch (IOException ignored) {}
+                socket = nuevo;
+                entrada = nuevaEntrada;
+                salida = nuevaSalida;
+                System.out.println("[i] Sesion reanudada como " + respuesta.get("body"));
+                return true;
+            } catch (IOException e) {
+                System.out.println("[!] Reconexion fallida: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
     private void cerrarConexion() {
         try {
             conectado = false;
             if (scanner != null) scanner.close();
             if (salida != null) salida.close();
-            if (entrada != null) entrada.close();
             if (socket != null) socket.close();
             System.out.println("\nDesconectado del servidor.");
         } catch (IOException e) {
@@ -111,18 +175,37 @@ public class ClienteQuizSSL {
     private class ListenerServidor implements Runnable {
         @Override
         public void run() {
-            try {
-                while (conectado) {
-                    Map<String, String> respuesta = HttpUtil.parse(entrada);
-                    if (respuesta == null) break;
-                    procesarRespuesta(respuesta);
+            while (conectado) {
+                Map<String, String> respuesta;
+                try {
+                    respuesta = entrada.leer();
+                } catch (IOException e) {
+                    respuesta = null;
                 }
-            } catch (IOException e) {
-                if (conectado) {
-                    System.err.println("[!] Conexion perdida con el servidor");
-                    conectado = false;
+                if (respuesta == null) {
+                    // Conexion caida: intentar recuperar la sesion con el token
+                    if (conectado && tokenSesion != null && reanudarSesion()) continue;
+                    break;
                 }
+                procesarRespuesta(respuesta);
+            }
+            if (conectado) {
+                System.err.println("[!] Conexion perdida con el servidor");
+                conectado = false;
+            }
+        }
+
+        // Body formato: pregunta\nA:opcion\nB:opcion\nC:opcion\nD:opcion
+        private void mostrarPregunta(String body) {
+            String[] lineas = body.split("\n");
+            System.out.println("\n========================================");
+            System.out.println("  " + lineas[0]);
+            System.out.println("========================================");
+            for (int i = 1; i < lineas.length; i++) {
+                System.out.println("  " + lineas[i].charAt(0) + ") " + lineas[i].substring(2));
             }
+            System.out.println("----------------------------------------");
+            System.out.print("Tu respuesta (A/B/C/D): ");
         }
 
         private void procesarRespuesta(Map<String, String> respuesta) {
@@ -131,16 +214,22 @@ public class ClienteQuizSSL {
             if (tipo == null || body == null) return;
 
             switch (tipo) {
-                case "QUESTION":
-                    String[] lineas = body.split("\n");
-                    System.out.println("\n========================================");
-                    System.out.println("  " + lineas[0]);
-                    System.out.println("========================================");
-                    for (int i = 1; i < lineas.length; i++) {
-                        System.out.println("  " + lineas[i].charAt(0) + ") " + lineas[i].substring(2));
+                case "PRELOAD":
+                    // Siguiente pregunta cifrada: no se puede leer hasta el REVEAL
+                    precarga = body;
+                    break;
+                case "REVEAL":
+                    // Clave de la pregunta precargada; descifrada se muestra como un QUESTION
+                    String pregunta = precarga != null ? Precarga.descifrar(precarga, body) : null;
+                    precarga = null;
+                    if (pregunta != null) {
+                        mostrarPregunta(pregunta);
+                    } else {
+                        System.out.println("[!] La pregunta precargada no coincide con la revelada");
                     }
-                    System.out.println("----------------------------------------");
-                    System.out.print("Tu respuesta (A/B/C/D): ");
+                    break;
+                case "QUESTION":
+                    mostrarPregunta(body);
                     break;
                 case "RESULT":
                     System.out.println("\n>> Respuesta correcta: " + body);
@@ -152,6 +241,10 @@ public class ClienteQuizSSL {
                     }
                     System.out.println("---------------");
                     break;
+                case "STATS":
+                    // Reparto de respuestas: "A:12,B:3,C:0,D:5,respondidas:20/40[,correctas:5]"
+                    System.out.println("\n[stats] " + body.replace(",", "  "));
+                    break;
                 case "NEXT":
                     System.out.println("\nSiguiente pregunta en 3 segundos...");
                     break;
@@ -171,6 +264,13 @@ public class ClienteQuizSSL {
                 case "WELCOME":
                     System.out.println("[i] " + body);
                     break;
+                case "PING":
+                    // Devolver la marca tal cual para que el servidor mida el RTT
+                    enviarPeticion("POST", "/pong", body);
+                    break;
+                case "TOKEN":
+                    tokenSesion = body;
+                    break;
                 default:
                     System.out.println(body);
                     break;
@@ -181,6 +281,7 @@ public class ClienteQuizSSL {
     public static void main(String[] args) {
         if (args.length > 0) HOST = args[0];
         if (args.length > 1) PUERTO = Integer.parseInt(args[1]);
+        if (args.length > 2) SALA = args[2];
         ClienteQuizSSL cliente = new ClienteQuizSSL();
         cliente.iniciar();
     }
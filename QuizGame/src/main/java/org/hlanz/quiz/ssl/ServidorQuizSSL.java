@@ -1,13 +1,19 @@
 package org.hlanz.quiz.ssl;
 
-import org.hlanz.quiz.modelo.Pregunta;
+import org.hlanz.quiz.log.Log;
+import org.hlanz.quiz.modelo.BancoPreguntas;
 import org.hlanz.quiz.servidor.ManejadorClienteQuiz;
+import org.hlanz.quiz.servidor.GestorSalas;
+import org.hlanz.quiz.servidor.PoolConexiones;
+import org.hlanz.quiz.servidor.ServidorAdmin;
+import org.hlanz.quiz.servidor.ServidorWebSocket;
+import org.hlanz.quiz.servidor.VigilantePreguntas;
 
 import javax.net.ssl.*;
 import java.io.*;
+import java.nio.file.Paths;
 import java.security.cert.X509Certificate;
 import java.util.*;
-import java.util.concurrent.*;
 
 /**
  * Servidor Quiz con SSL/TLS
@@ -16,222 +22,126 @@ import java.util.concurrent.*;
  */
 public class ServidorQuizSSL {
     private static final int PUERTO = 8443;
-    private static final int MAX_CLIENTES = 10;
-    private static final int TIEMPO_RESPUESTA_SEG = 15;
+    // Jugadores a la vez (un espectador solo ocupa hilo al unirse); los que no caben se rechazan
+    private static final int MAX_CLIENTES = Integer.getInteger("quiz.max.clientes", 1024);
+    // Directorio de CSV vigilado para recargar preguntas en caliente (opcional)
+    private static final String DIR_PREGUNTAS = System.getProperty("quiz.preguntas.dir");
 
-    private static Set<ManejadorClienteQuiz> jugadores = ConcurrentHashMap.newKeySet();
-    private static List<Pregunta> preguntas;
-    private static volatile long tiempoPrimerJugador = 0;
+    private static BancoPreguntas preguntas;
 
     public static void main(String[] args) {
-        ExecutorService pool = Executors.newFixedThreadPool(MAX_CLIENTES);
+        PoolConexiones pool = new PoolConexiones("cliente-ssl", MAX_CLIENTES, PoolConexiones.SERVIDOR_LLENO);
 
         // Cargar preguntas
         preguntas = cargarPreguntas();
-        if (preguntas.isEmpty()) {
-            System.out.println("[ERROR] No se pudieron cargar preguntas. Saliendo...");
+        if (preguntas == null) {
+            Log.error("[ERROR] No se pudieron cargar preguntas. Saliendo...");
             return;
         }
 
-        System.out.println("=== SERVIDOR QUIZ SSL/TLS ===");
-        System.out.println("Protocolo: HTTP/1.1 sobre TCP con SSL/TLS");
-        System.out.println("Puerto: " + PUERTO);
-        System.out.println("Preguntas cargadas: " + preguntas.size());
-        System.out.println("Esperando jugadores...");
-        System.out.println("[i] El juego arrancara con 2 jugadores o tras 90s desde el primero.\n");
+        Log.info("=== SERVIDOR QUIZ SSL/TLS ===");
+        Log.info("Protocolo: HTTP/1.1 sobre TCP con SSL/TLS");
+        Log.info("Puerto: " + PUERTO);
+        Log.info("Preguntas cargadas: " + preguntas.getNumPreguntas() + " " + preguntas.getGrupos());
+        Log.info("Esperando jugadores...");
+        Log.info("[i] Cada sala arranca con 2 jugadores o tras 90s desde el primero.\n");
 
-        // Hilo para aceptar conexiones SSL
-        Thread hiloConexiones = new Thread(() -> {
-            try {
-                // Configurar keystore SSL (ruta absoluta para compatibilidad con Docker)
-                String keystorePath = "/app/Certificados/server.keystore";
-                System.setProperty("javax.net.ssl.keyStore", keystorePath);
-                System.setProperty("javax.net.ssl.keyStorePassword", "password123");
-
-                // Crear SSLServerSocket
-                SSLServerSocketFactory factory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
-                SSLServerSocket serverSocket = (SSLServerSocket) factory.createServerSocket(PUERTO);
-
-                System.out.println("[OK] SSLServerSocket iniciado en puerto " + PUERTO);
-
-                while (true) {
-                    // accept() devuelve SSLSocket (que extiende Socket)
-                    SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
-                    System.out.println("[+] Cliente SSL conectado: " + clientSocket.getInetAddress());
-
-                    // ManejadorClienteQuiz acepta Socket, SSLSocket extiende Socket
-                    // Pasamos callbacks para que registre en ServidorQuizSSL (no en ServidorQuiz)
-                    ManejadorClienteQuiz manejador = new ManejadorClienteQuiz(
-                            clientSocket,
-                            ServidorQuizSSL::registrarJugador,
-                            ServidorQuizSSL::removerJugador
-                    );
-                    pool.execute(manejador);
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
-        hiloConexiones.setDaemon(true);
-        hiloConexiones.start();
-
-        // Espera automática: arranca con 2+ jugadores o tras 90s desde el primer jugador
-        final long TIMEOUT_MS = 90_000L;
-        final int MIN_JUGADORES = 2;
-        while (true) {
-            int n = jugadores.size();
-            if (n >= MIN_JUGADORES) {
-                System.out.println("[i] " + n + " jugadores conectados. Iniciando juego...");
-                break;
-            }
-            if (tiempoPrimerJugador > 0 && (System.currentTimeMillis() - tiempoPrimerJugador) >= TIMEOUT_MS) {
-                System.out.println("[i] Timeout de 90s alcanzado con " + n + " jugador(es). Iniciando juego...");
-                break;
-            }
-            try { Thread.sleep(500); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        // Salas propias de este servidor (independientes de las de ServidorQuiz)
+        GestorSalas gestorSalas;
+        try {
+            gestorSalas = new GestorSalas(preguntas);
+        } catch (IOException e) {
+            Log.error("[ERROR] No se pudieron leer las preguntas del banco", e);
+            return;
         }
-
-        System.out.println("\n=== EMPIEZA EL QUIZ (SSL) ===\n");
-        iniciarJuego();
-        pool.shutdown();
-    }
-
-    private static void iniciarJuego() {
-        for (int i = 0; i < preguntas.size(); i++) {
-            Pregunta pregunta = preguntas.get(i);
-
-            for (ManejadorClienteQuiz jugador : jugadores) {
-                jugador.nuevaRonda();
-            }
-
-            System.out.println("--- Pregunta " + (i + 1) + "/" + preguntas.size() + " ---");
-            System.out.println(pregunta.getPregunta());
-
-            String bodyPregunta = pregunta.getPregunta() + "\n"
-                    + "A:" + pregunta.getOpcionA() + "\n"
-                    + "B:" + pregunta.getOpcionB() + "\n"
-                    + "C:" + pregunta.getOpcionC() + "\n"
-                    + "D:" + pregunta.getOpcionD();
-            broadcastHttp("QUESTION", bodyPregunta);
-
-            long tiempoInicio = System.currentTimeMillis();
-            long limite = tiempoInicio + (TIEMPO_RESPUESTA_SEG * 1000L);
-            while (System.currentTimeMillis() < limite) {
-                boolean todosRespondieron = true;
-                for (ManejadorClienteQuiz jugador : jugadores) {
-                    if (jugador.estaConectado() && !jugador.haRespondido()) {
-                        todosRespondieron = false;
-                        break;
-                    }
-                }
-                if (todosRespondieron) break;
-                try { Thread.sleep(500); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-            }
-
-            calcularPuntos(pregunta, tiempoInicio);
-            broadcastHttp("RESULT", String.valueOf(pregunta.getRespuestaCorrecta()));
-            String ranking = generarRanking();
-            broadcastHttp("RANKING", ranking);
-            System.out.println("Ranking: " + ranking + "\n");
-
-            if (i < preguntas.size() - 1) {
-                broadcastHttp("NEXT", "Siguiente pregunta...");
-                try { Thread.sleep(3000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-            }
+        ServidorAdmin.arrancar(gestorSalas);
+        if (DIR_PREGUNTAS != null) {
+            VigilantePreguntas.arrancar(Paths.get(DIR_PREGUNTAS), gestorSalas);
         }
-
-        System.out.println("=== FIN DEL QUIZ ===");
-        System.out.println("Ranking final: " + generarRanking());
-        broadcastHttp("END", generarRanking());
-    }
-
-    private static void calcularPuntos(Pregunta pregunta, long tiempoInicio) {
-        for (ManejadorClienteQuiz jugador : jugadores) {
-            if (!jugador.estaConectado()) continue;
-            if (jugador.haRespondido() && pregunta.esCorrecta(jugador.getRespuesta())) {
-                long ms = jugador.getTiempoRespuesta() - tiempoInicio;
-                int puntos = Math.max(100, 1000 - (int)(ms / 10));
-                jugador.sumarPuntos(puntos);
-                System.out.println("  " + jugador.getNombreUsuario() + ": CORRECTO (" + ms + "ms) -> +" + puntos + "pts");
-            } else if (jugador.haRespondido()) {
-                System.out.println("  " + jugador.getNombreUsuario() + ": INCORRECTO (respondio " + jugador.getRespuesta() + ")");
-            } else {
-                System.out.println("  " + jugador.getNombreUsuario() + ": NO RESPONDIO");
+        try {
+            // Configurar keystore SSL (ruta absoluta para compatibilidad con Docker)
+            String keystorePath = "/app/Certificados/server.keystore";
+            System.setProperty("javax.net.ssl.keyStore", keystorePath);
+            System.setProperty("javax.net.ssl.keyStorePassword", "password123");
+
+            // Crear SSLServerSocket
+            SSLServerSocketFactory factory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
+            SSLServerSocket serverSocket = (SSLServerSocket) factory.createServerSocket(PUERTO);
+
+            Log.info("[OK] SSLServerSocket iniciado en puerto " + PUERTO);
+            // WebSocket sobre TLS (wss://) con el mismo keystore
+            ServidorWebSocket.arrancar(factory, gestorSalas);
+
+            while (true) {
+                // accept() devuelve SSLSocket (que extiende Socket)
+                SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
+                Log.info("[+] Cliente SSL conectado: " + clientSocket.getInetAddress());
+
+                // ManejadorClienteQuiz acepta Socket, SSLSocket extiende Socket
+                pool.atender(clientSocket, new ManejadorClienteQuiz(clientSocket, gestorSalas));
             }
+        } catch (IOException e) {
+            Log.error("[ERROR] Fallo aceptando conexiones en el puerto " + PUERTO, e);
+        } finally {
+            pool.cerrar();
         }
     }
 
-    private static String generarRanking() {
-        List<ManejadorClienteQuiz> lista = new ArrayList<>(jugadores);
-        lista.sort((a, b) -> b.getPuntuacionTotal() - a.getPuntuacionTotal());
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < lista.size(); i++) {
-            if (i > 0) sb.append(",");
-            sb.append((i + 1)).append(".").append(lista.get(i).getNombreUsuario())
-              .append("(").append(lista.get(i).getPuntuacionTotal()).append("pts)");
+    // Indice del banco de preguntas o null si no hay ninguna disponible
+    private static BancoPreguntas cargarPreguntas() {
+        // Directorio vigilado, si se ha configurado y tiene preguntas
+        if (DIR_PREGUNTAS != null) {
+            Log.info("[i] Cargando preguntas desde " + DIR_PREGUNTAS + "...");
+            try {
+                BancoPreguntas bancoDir = VigilantePreguntas.cargar(Paths.get(DIR_PREGUNTAS));
+                if (bancoDir != null) {
+                    return bancoDir;
+                }
+                Log.warn("[WARN] " + DIR_PREGUNTAS + " no tiene preguntas validas");
+            } catch (IOException e) {
+                Log.warn("[WARN] No se pudo leer " + DIR_PREGUNTAS + ": " + e.getMessage());
+            }
         }
-        return sb.toString();
-    }
 
-    private static List<Pregunta> cargarPreguntas() {
         // Intentar cargar desde FTP primero
-        List<Pregunta> preguntasFtp = cargarDesdeFTP();
-        if (!preguntasFtp.isEmpty()) {
-            return preguntasFtp;
+        BancoPreguntas bancoFtp = cargarDesdeFTP();
+        if (bancoFtp != null) {
+            return bancoFtp;
         }
 
         // Fallback: cargar desde CSV local
-        System.out.println("[i] Cargando preguntas desde CSV local (blocket.csv)...");
-        InputStream is = ServidorQuizSSL.class.getClassLoader().getResourceAsStream("blocket.csv");
-        if (is == null) {
-            System.out.println("[ERROR] No se encontro blocket.csv en resources");
-            return new ArrayList<>();
-        }
-        try {
-            return Pregunta.cargarDesdeCSV(is);
+        Log.info("[i] Cargando preguntas desde CSV local (blocket.csv)...");
+        try (InputStream is = ServidorQuizSSL.class.getClassLoader().getResourceAsStream("blocket.csv")) {
+            if (is == null) {
+                Log.error("[ERROR] No se encontro blocket.csv en resources");
+                return null;
+            }
+            BancoPreguntas banco = BancoPreguntas.desdeStream(is);
+            return banco.getNumPreguntas() > 0 ? banco : null;
         } catch (IOException e) {
-            System.out.println("[ERROR] Error leyendo CSV: " + e.getMessage());
-            return new ArrayList<>();
+            Log.error("[ERROR] Error leyendo CSV: " + e.getMessage());
+            return null;
         }
     }
 
-    private static List<Pregunta> cargarDesdeFTP() {
+    private static BancoPreguntas cargarDesdeFTP() {
         String ftpHost = "172.17.0.1";
         String ftpFile = "/blocket.csv";
-        System.out.println("[i] Intentando descargar preguntas desde FTP " + ftpHost + "...");
+        Log.info("[i] Intentando descargar preguntas desde FTP " + ftpHost + "...");
         try {
             java.net.URL url = new java.net.URL("ftp://ftpquiz:Quiz2026!@" + ftpHost + ftpFile);
             java.net.URLConnection conexion = url.openConnection();
             conexion.setConnectTimeout(5000);
             conexion.setReadTimeout(5000);
             InputStream is = conexion.getInputStream();
-            List<Pregunta> preguntas = Pregunta.cargarDesdeCSV(is);
+            BancoPreguntas banco = BancoPreguntas.desdeStream(is);
             is.close();
-            System.out.println("[OK] Preguntas descargadas del FTP: " + preguntas.size());
-            return preguntas;
+            Log.info("[OK] Preguntas descargadas del FTP: " + banco.getNumPreguntas());
+            return banco.getNumPreguntas() > 0 ? banco : null;
         } catch (Exception e) {
-            System.out.println("[WARN] No se pudo conectar al FTP: " + e.getMessage());
-            System.out.println("[i] Usando CSV local como fallback...");
-            return new ArrayList<>();
-        }
-    }
-
-    public static void broadcastHttp(String tipo, String body) {
-        for (ManejadorClienteQuiz jugador : jugadores) {
-            jugador.enviarHttp(tipo, body);
+            Log.warn("[WARN] No se pudo conectar al FTP: " + e.getMessage());
+            Log.info("[i] Usando CSV local como fallback...");
+            return null;
         }
     }
-
-    public static void registrarJugador(ManejadorClienteQuiz jugador) {
-        jugadores.add(jugador);
-        if (tiempoPrimerJugador == 0) {
-            tiempoPrimerJugador = System.currentTimeMillis();
-            System.out.println("[i] Primer jugador conectado. El juego arrancara en max 90s.");
-        }
-        System.out.println("[i] Jugadores conectados: " + jugadores.size());
-    }
-
-    public static void removerJugador(ManejadorClienteQuiz jugador) {
-        jugadores.remove(jugador);
-    }
 }
@@ -1,4 +1,7 @@
 #!/bin/bash
+# Salas de mas de 16384 jugadores (fin de ronda repartido entre hilos, ver
+# CierreRonda): anadir -Dquiz.sala.capacidad=N con N por encima de ese umbral.
+# Con la capacidad por defecto (1024) el fin de ronda va siempre en un hilo.
 while true; do
   java -cp app.jar org.hlanz.quiz.servidor.ServidorQuiz
   echo "[i] ServidorQuiz terminó, reiniciando en 3s..."
@@ -6,7 +9,9 @@ while true; do
 done &
 
 while true; do
-  java -cp app.jar org.hlanz.quiz.ssl.ServidorQuizSSL
+  # Admin, WebSocket y clasificacion propios para no chocar con el servidor TCP
+  java -Dquiz.admin.puerto=8444 -Dquiz.ws.puerto=8446 -Dquiz.clasificacion.archivo=clasificacion-ssl.tsv \
+       -cp app.jar org.hlanz.quiz.ssl.ServidorQuizSSL
   echo "[i] ServidorQuizSSL terminó, reiniciando en 3s..."
   sleep 3
 done &